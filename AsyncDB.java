@@ -0,0 +1,391 @@
+package ru.eludia.base;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.JsonArray;
+import javax.json.JsonObjectBuilder;
+import ru.eludia.base.db.sql.build.QP;
+import ru.eludia.base.db.sql.gen.Select;
+import ru.eludia.base.db.util.JDBCFunction;
+
+/**
+ * Асинхронный доступ к БД: каждый запрос исполняется в отдельном потоке 
+ * на отдельном соединении, полученном от источника данных модели, 
+ * а результат выдаётся как CompletableFuture.
+ * 
+ * Получается методом Model.async (). Позволяет, например, запустить 
+ * несколько независимых выборок одновременно:
+ * 
+ *     CompletableFuture<List<Map<String, Object>>> a = model.async ().getList (s1);
+ *     CompletableFuture<Integer> b = model.async ().getCnt (s2);
+ *     ...
+ *     a.join (); b.join ();
+ * 
+ * Число одновременно занятых соединений ограничено (setMaxConcurrency), 
+ * лишние задачи ждут своей очереди. По умолчанию задачи исполняются 
+ * в виртуальных потоках (если JVM их поддерживает), иначе -- в пуле 
+ * из maxConcurrency потоков-демонов.
+ * 
+ * Каждая задача -- отдельная транзакция в режиме AutoCommit, 
+ * видимость незафиксированных изменений вызывающего кода не гарантируется.
+ */
+public final class AsyncDB {
+    
+    private static final Logger logger = Logger.getLogger (AsyncDB.class.getName ());
+    
+    public static final int DEFAULT_MAX_CONCURRENCY = 8;
+    
+    private static final AtomicInteger threadCount = new AtomicInteger ();
+    
+    Model model;
+    Executor executor;
+    boolean defaultExecutor = true;
+    int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    Semaphore permits = new Semaphore (DEFAULT_MAX_CONCURRENCY, true);
+
+    AsyncDB (Model model) {
+        this.model = model;
+    }
+    
+    private static Executor newVirtualThreadExecutor () {
+        
+        try {
+            Method m = Executors.class.getMethod ("newVirtualThreadPerTaskExecutor");
+            return (Executor) m.invoke (null);
+        }
+        catch (NoSuchMethodException ex) {
+            return null;
+        }
+        catch (ReflectiveOperationException | RuntimeException ex) {
+            logger.log (Level.WARNING, "Cannot create virtual thread executor", ex);
+            return null;
+        }
+        
+    }
+    
+    private static Executor newThreadPool (int size) {
+        return Executors.newFixedThreadPool (size, r -> {
+            Thread t = new Thread (r, "eludia-async-" + threadCount.incrementAndGet ());
+            t.setDaemon (true);
+            return t;
+        });
+    }
+    
+    /**
+     * Исполнитель задач. Если не установлен явно, создаётся при первом обращении.
+     * @return subj
+     */
+    public synchronized Executor getExecutor () {
+        
+        if (executor == null) {
+            executor = newVirtualThreadExecutor ();
+            if (executor == null) executor = newThreadPool (maxConcurrency);
+        }
+        
+        return executor;
+        
+    }
+
+    /**
+     * Установка исполнителя задач (например, пула сервера приложений).
+     * Управление его жизненным циклом остаётся за вызывающим кодом.
+     * @param executor исполнитель; null -- вернуться к исполнителю по умолчанию
+     */
+    public synchronized void setExecutor (Executor executor) {
+        this.executor = executor;
+        this.defaultExecutor = executor == null;
+    }
+
+    /**
+     * @return максимальное число одновременно исполняемых задач (и занятых ими соединений)
+     */
+    public synchronized int getMaxConcurrency () {
+        return maxConcurrency;
+    }
+
+    /**
+     * Установка максимального числа одновременно исполняемых задач. 
+     * Действует для задач, запущенных после вызова.
+     * @param maxConcurrency число задач, не меньше 1
+     */
+    public synchronized void setMaxConcurrency (int maxConcurrency) {
+        if (maxConcurrency < 1) throw new IllegalArgumentException ("Illegal maxConcurrency value: " + maxConcurrency);
+        if (maxConcurrency == this.maxConcurrency) return;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore (maxConcurrency, true);
+        if (defaultExecutor && executor instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) executor).shutdown ();
+            executor = null;
+        }
+    }
+    
+    /**
+     * Асинхронное исполнение произвольного кода на отдельном соединении
+     * @param f что исполнить; получает открытое соединение, которое будет закрыто по завершении
+     * @return результат f
+     */
+    public <T> CompletableFuture<T> call (JDBCFunction<DB, T> f) {
+        
+        final CompletableFuture<T> result = new CompletableFuture<> ();
+        
+        final Semaphore permits;
+        final Executor executor;
+        
+        synchronized (this) {
+            permits = this.permits;
+            executor = getExecutor ();
+        }
+        
+        try {
+            executor.execute (() -> run (f, permits, result));
+        }
+        catch (RejectedExecutionException ex) {
+            result.completeExceptionally (ex);
+        }
+        
+        return result;
+        
+    }
+    
+    private <T> void run (JDBCFunction<DB, T> f, Semaphore permits, CompletableFuture<T> result) {
+        
+        if (result.isDone ()) return;
+        
+        try {
+            permits.acquire ();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread ().interrupt ();
+            result.completeExceptionally (ex);
+            return;
+        }
+        
+        try (DB db = model.getDb ()) {
+            result.complete (f.apply (db));
+        }
+        catch (Throwable ex) {
+            result.completeExceptionally (ex);
+        }
+        finally {
+            permits.release ();
+        }
+        
+    }
+    
+    /**
+     * Асинхронное исполнение произвольного кода на отдельном соединении, 
+     * переключённом на чтение по состоянию на заданный момент (см. DB.setSnapshot)
+     * @param snapshot метка, полученная от DB.getSnapshot (); null -- текущее состояние
+     * @param f что исполнить
+     * @return результат f
+     */
+    public <T> CompletableFuture<T> call (Object snapshot, JDBCFunction<DB, T> f) {
+        
+        if (snapshot == null) return call (f);
+        
+        return call (db -> {
+            db.setSnapshot (snapshot);
+            try {
+                return f.apply (db);
+            }
+            finally {
+                db.setSnapshot (null);
+            }
+        });
+        
+    }
+    
+    /**
+     * Ожидание результата асинхронной задачи с пересылкой её ошибки
+     * @param f задача
+     * @return результат
+     * @throws SQLException ошибка задачи либо прерывание ожидания
+     */
+    public static <T> T await (CompletableFuture<T> f) throws SQLException {
+        
+        try {
+            return f.get ();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread ().interrupt ();
+            throw new SQLException ("Interrupted", ex);
+        }
+        catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause ();
+            if (cause instanceof SQLException) throw (SQLException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new SQLException (cause);
+        }
+        
+    }
+    
+    private static void awaitAll (List<? extends CompletableFuture<?>> fs) throws SQLException {
+        
+        try {
+            for (CompletableFuture<?> f: fs) await (f);
+        }
+        catch (SQLException | RuntimeException | Error ex) {
+            for (CompletableFuture<?> f: fs) f.cancel (false);
+            throw ex;
+        }
+        
+    }
+    
+    private Object getSnapshot () throws SQLException {
+        try (DB db = model.getDb ()) {
+            return db.getSnapshot ();
+        }
+    }
+    
+    /**
+     * Параллельный вариант DB.addJsonArrays: все запросы исполняются одновременно 
+     * на разных соединениях, а результаты добавляются в jb в исходном порядке.
+     * @param jb куда добавлять выборки
+     * @param ss запросы
+     * @return jb
+     * @throws SQLException
+     */
+    public JsonObjectBuilder addJsonArrays (JsonObjectBuilder jb, Select... ss) throws SQLException {
+        return addJsonArrays (jb, false, ss);
+    }
+    
+    /**
+     * Параллельный вариант DB.addJsonArrays. См. addJsonArrays (JsonObjectBuilder, Select...).
+     * @param jb куда добавлять выборки
+     * @param consistent если true, все запросы читают данные на один и тот же момент 
+     * (см. DB.getSnapshot: для Oracle требуется право EXECUTE на DBMS_FLASHBACK)
+     * @param ss запросы
+     * @return jb
+     * @throws SQLException
+     */
+    public JsonObjectBuilder addJsonArrays (JsonObjectBuilder jb, boolean consistent, Select... ss) throws SQLException {
+        
+        final Object snapshot = consistent && ss.length > 1 ? getSnapshot () : null;
+        
+        List<CompletableFuture<JsonArray>> fs = new ArrayList<> (ss.length);
+        
+        for (Select s: ss) fs.add (call (snapshot, db -> db.getJsonArray (s)));
+        
+        awaitAll (fs);
+        
+        for (int i = 0; i < ss.length; i ++) jb.add (ss [i].getTableAlias (), fs.get (i).join ());
+        
+        return jb;
+        
+    }
+    
+    /**
+     * Параллельный вариант DB.addJsonArrayCnt: выборка и COUNT(*) 
+     * исполняются одновременно на разных соединениях.
+     * @param jb куда добавить поля
+     * @param s запрос с установленным limit
+     * @return jb
+     * @throws SQLException
+     */
+    public JsonObjectBuilder addJsonArrayCnt (JsonObjectBuilder jb, Select s) throws SQLException {
+        return addJsonArrayCnt (jb, false, s);
+    }
+    
+    /**
+     * Параллельный вариант DB.addJsonArrayCnt. См. addJsonArrayCnt (JsonObjectBuilder, Select).
+     * @param jb куда добавить поля
+     * @param consistent если true, оба запроса читают данные на один и тот же момент
+     * @param s запрос с установленным limit
+     * @return jb
+     * @throws SQLException
+     */
+    public JsonObjectBuilder addJsonArrayCnt (JsonObjectBuilder jb, boolean consistent, Select s) throws SQLException {
+        
+        final Object snapshot = consistent ? getSnapshot () : null;
+        
+        final CompletableFuture<JsonArray> list = call (snapshot, db -> db.getJsonArray (s));
+        final CompletableFuture<Integer> cnt = call (snapshot, db -> db.getCnt (s));
+        
+        awaitAll (Arrays.asList (list, cnt));
+        
+        jb.add (s.getTableAlias (), list.join ());
+        jb.add ("cnt", cnt.join ());
+        
+        return jb;
+        
+    }
+    
+    /**
+     * Асинхронный вариант DB.getList (Select)
+     * @param s запрос
+     * @return список записей
+     */
+    public CompletableFuture<List<Map<String, Object>>> getList (Select s) {
+        return call (db -> db.getList (s));
+    }
+    
+    /**
+     * Асинхронный вариант DB.getList (QP)
+     * @param qp запрос
+     * @return список записей
+     */
+    public CompletableFuture<List<Map<String, Object>>> getList (QP qp) {
+        return call (db -> db.getList (qp));
+    }
+    
+    /**
+     * Асинхронный вариант DB.getMap (Select)
+     * @param s запрос
+     * @return первая запись либо null
+     */
+    public CompletableFuture<Map<String, Object>> getMap (Select s) {
+        return call (db -> db.getMap (s));
+    }
+    
+    /**
+     * Асинхронный вариант DB.getMap (QP)
+     * @param qp запрос
+     * @return первая запись либо null
+     */
+    public CompletableFuture<Map<String, Object>> getMap (QP qp) {
+        return call (db -> db.getMap (qp));
+    }
+    
+    /**
+     * Асинхронный вариант DB.getJsonArray (Select)
+     * @param s запрос
+     * @return записи в виде JSON
+     */
+    public CompletableFuture<JsonArray> getJsonArray (Select s) {
+        return call (db -> db.getJsonArray (s));
+    }
+    
+    /**
+     * Асинхронный вариант DB.getJsonArray (QP)
+     * @param qp запрос
+     * @return записи в виде JSON
+     */
+    public CompletableFuture<JsonArray> getJsonArray (QP qp) {
+        return call (db -> db.getJsonArray (qp));
+    }
+    
+    /**
+     * Асинхронный вариант DB.getCnt (Select)
+     * @param s запрос
+     * @return COUNT(*) без учёта limit
+     */
+    public CompletableFuture<Integer> getCnt (Select s) {
+        return call (db -> db.getCnt (s));
+    }
+    
+}
@@ -7,7 +7,12 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.Blob;
 import ru.eludia.base.db.sql.build.QP;
+import ru.eludia.base.db.util.JDBCBiConsumer;
 import ru.eludia.base.db.util.JDBCConsumer;
+import ru.eludia.base.db.util.JDBCFunction;
+import ru.eludia.base.db.util.JDBCRunnable;
+import ru.eludia.base.db.util.LongIndex;
+import ru.eludia.base.db.util.UuidIndex;
 import java.sql.Connection;
 import java.sql.JDBCType;
 import java.sql.PreparedStatement;
@@ -17,21 +22,31 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterators;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import ru.eludia.base.db.sql.build.SQLBuilder;
+import ru.eludia.base.db.sql.build.StatementBatch;
 import ru.eludia.base.db.sql.build.TableRecordSQLBuilder;
 import ru.eludia.base.db.sql.build.TableRecordListBuilder;
 import ru.eludia.base.db.sql.build.TableSQLBuilder;
@@ -40,10 +55,20 @@ import ru.eludia.base.model.abs.Roster;
 import ru.eludia.base.model.Table;
 import ru.eludia.base.db.sql.gen.Get;
 import ru.eludia.base.db.sql.gen.Select;
+import ru.eludia.base.db.monitor.QueryEvent;
+import ru.eludia.base.db.monitor.QueryListener;
+import ru.eludia.base.db.monitor.QueryListeners;
+import ru.eludia.base.db.cache.EntityCache;
+import ru.eludia.base.db.util.ColumnReader;
 import ru.eludia.base.db.util.ParamSetter;
+import ru.eludia.base.db.util.Page;
+import ru.eludia.base.db.util.Row;
+import ru.eludia.base.db.util.RowReader;
+import ru.eludia.base.db.util.StatementCache;
 import ru.eludia.base.db.util.TypeConverter;
 import javax.xml.datatype.XMLGregorianCalendar;
 import ru.eludia.base.model.Col;
+import ru.eludia.base.model.Sequence;
 import ru.eludia.base.model.ColEnum;
 import ru.eludia.base.model.diff.TypeAction;
 
@@ -62,6 +87,18 @@ public abstract class DB implements AutoCloseable, ParamSetter {
     
     protected final Logger logger = Logger.getLogger (this.getClass ().getName ());
     
+    /**
+     * Размер порции выборки в forEach для запросов, где он не задан 
+     * (QP, собранных вручную)
+     */
+    public static final int DEFAULT_FETCH_SIZE = 100;
+    
+    /**
+     * Максимальное число запросов в одном пакете внутри batch (), 
+     * если не задано явно
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    
     /**
      * Набор вспомогательных процедур по переводу типов данных, доступный в виде
      * статической переменной.
@@ -70,6 +107,14 @@ public abstract class DB implements AutoCloseable, ParamSetter {
 
     protected Connection cn;
     protected Model model;
+    protected StatementCache statements;
+    protected QueryListeners queryListeners;
+    
+    private ResultSet lastResultSet;
+    private RowReader lastRowReader;
+    
+    private int batchSize = 0;
+    private StatementBatch pending;
     
     /**
      * Проверка того, сводится ли значение переданного объекта к 
@@ -128,10 +173,53 @@ public abstract class DB implements AutoCloseable, ParamSetter {
     public Model getModel () {
         return model;
     }
+
+    /**
+     * Кэш подготовленных запросов данного соединения
+     * @return кэш со счётчиками попаданий, промахов и вытеснений
+     */
+    public final StatementCache getStatementCache () {
+        return statements;
+    }
+    
+    /**
+     * Регистрация получателя сведений о запросах только по данному соединению 
+     * (в дополнение к зарегистрированным в модели)
+     * @param l получатель
+     */
+    public final void addQueryListener (QueryListener l) {
+        if (queryListeners == null) queryListeners = new QueryListeners ();
+        queryListeners.add (l);
+    }
+    
+    /**
+     * Отмена регистрации получателя сведений о запросах по данному соединению
+     * @param l ранее зарегистрированный получатель
+     */
+    public final void removeQueryListener (QueryListener l) {
+        if (queryListeners != null) queryListeners.remove (l);
+    }
+    
+    private QueryEvent startQuery (SQLBuilder b) {
+        b.setTracing (model.getQueryListeners ().isTracingParams () || (queryListeners != null && queryListeners.isTracingParams ()));
+        return new QueryEvent (this, b);
+    }
+    
+    private void endQuery (QueryEvent e) {
+        e.done ();
+        model.getQueryListeners ().fire (e);
+        if (queryListeners != null) queryListeners.fire (e);
+    }
     
     @Override
     public void close () {
         
+        pending = null;
+        
+        statements.close ();
+        
+        flushInvalidations ();
+        
         try {
             if (!cn.getAutoCommit ()) cn.rollback ();
         }
@@ -168,7 +256,10 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      * @throws SQLException
      */
     public final void commit () throws SQLException {
+        flushBatch ();
         cn.commit ();
+        flushInvalidations ();
+        if (identityMap != null) identityMap.clear ();
     }
     
     /**
@@ -176,7 +267,187 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      * @throws SQLException
      */
     public final void rollback () throws SQLException {
+        pending = null;
         cn.rollback ();
+        flushInvalidations ();
+        if (identityMap != null) identityMap.clear ();
+    }
+    
+    /**
+     * Записи, прочитанные по первичному ключу через этот DB (см. setIdentityMap); 
+     * null, если не включено. Значение null в таблице записей -- запись не найдена.
+     */
+    Map<Table, Map<Object, Map<String, Object>>> identityMap = null;
+    
+    /**
+     * Включение/выключение "карты идентичности": памяти о записях, 
+     * прочитанных по первичному ключу (getMap, getJsonObject, getString и 
+     * getInteger по таблице и id) в течение жизни этого DB, а внутри 
+     * явной транзакции -- до её commit/rollback.
+     * 
+     * Повторные чтения той же записи обслуживаются без обращения к БД. 
+     * Собственные изменения этого DB (insert, update, upsert, delete, truncate) 
+     * удаляют соответствующие записи из памяти; изменения, сделанные через 
+     * другие соединения, в течение этого времени не видны.
+     * 
+     * @param on true -- включить, false -- выключить и забыть всё прочитанное
+     */
+    public final void setIdentityMap (boolean on) {
+        if (!on) identityMap = null; else if (identityMap == null) identityMap = new HashMap<> ();
+    }
+    
+    /**
+     * @return true, если "карта идентичности" включена (см. setIdentityMap)
+     */
+    public final boolean isIdentityMap () {
+        return identityMap != null;
+    }
+    
+    private Map<String, Object> getMapByPk (Table t, Object id) throws SQLException {
+        
+        final EntityCache c = t.getCache ();
+        
+        if (c == null || (dirty != null && dirty.containsKey (t))) return getMap (new Get (t, id, "*"));
+        
+        return c.get (id, i -> getMap (new Get (t, i, "*")));
+        
+    }
+    
+    /**
+     * Запись из "карты идентичности" либо прочитанная и запомненная там
+     * @return сама запомненная запись (не копия!) либо null
+     */
+    private Map<String, Object> getIdentity (Table t, Object id) throws SQLException {
+        
+        final Map<Object, Map<String, Object>> m = identityMap.computeIfAbsent (t, x -> new HashMap<> ());
+        
+        final Object key = EntityCache.toKey (id);
+        
+        if (m.containsKey (key)) return m.get (key);
+        
+        final Map<String, Object> r = getMapByPk (t, id);
+        
+        m.put (key, r);
+        
+        return r;
+        
+    }
+    
+    private boolean isIdentityMapped (Table t, Object id) {
+        if (identityMap == null || id == null) return false;
+        final List<Col> pk = t.getPk ();
+        return pk != null && pk.size () == 1;
+    }
+    
+    /**
+     * Ключи записей кэшируемых таблиц (см. Table.cache), изменённых 
+     * в текущей транзакции; null вместо множества -- вся таблица.
+     * 
+     * Пока транзакция не закрыта, эти таблицы читаются в обход кэша, 
+     * а при её закрытии ключи удаляются из кэша повторно: за это время 
+     * другое соединение могло загрузить туда прежние значения.
+     * 
+     * То же относится к изменениям, отложенным в batch (): в режиме 
+     * autoCommit ключи удаляются из кэша повторно сразу после отправки пакета.
+     */
+    Map<Table, Set<Object>> dirty = null;
+    
+    private void flushInvalidations () {
+        
+        if (dirty == null) return;
+        
+        for (Map.Entry<Table, Set<Object>> i: dirty.entrySet ()) {
+            final EntityCache c = i.getKey ().getCache ();
+            if (c == null) continue;
+            if (i.getValue () == null) c.invalidateAll (); else for (Object id: i.getValue ()) c.invalidate (id);
+        }
+        
+        dirty = null;
+        
+    }
+    
+    /**
+     * Удаление из кэша записей, изменённых по заданному ключу
+     * @param t таблица
+     * @param records изменённые записи; null -- неизвестно, какие
+     * @param key ключ, по которому они изменены (пустой -- первичный)
+     */
+    private void invalidate (Table t, List<Map<String, Object>> records, String... key) throws SQLException {
+        
+        final EntityCache c = t.getCache ();
+        
+        if (c == null && identityMap == null) return;
+        
+        final List<Col> pk = t.getPk ();
+        
+        final String pkName = pk == null || pk.size () != 1 ? null : pk.get (0).getName ();
+        
+        Set<Object> ids = null;
+        
+        if (pkName != null && records != null && (key == null || key.length == 0 || (key.length == 1 && pkName.equals (key [0])))) {
+            ids = new HashSet<> ();
+            for (Map<String, Object> r: records) {
+                final Object id = r.get (pkName);
+                if (id == null) {
+                    ids = null;
+                    break;
+                }
+                ids.add (id);
+            }
+        }
+        
+        if (identityMap != null) {
+            final Map<Object, Map<String, Object>> m = identityMap.get (t);
+            if (m != null) if (ids == null) identityMap.remove (t); else for (Object id: ids) m.remove (EntityCache.toKey (id));
+        }
+        
+        if (c == null) return;
+        
+        if (ids == null) c.invalidateAll (); else for (Object id: ids) c.invalidate (id);
+        
+        if (pending == null && cn.getAutoCommit ()) return;
+        
+        if (dirty == null) dirty = new HashMap<> ();
+        
+        if (ids == null || (dirty.containsKey (t) && dirty.get (t) == null)) {
+            dirty.put (t, null);
+        }
+        else {
+            dirty.computeIfAbsent (t, x -> new HashSet<> ()).addAll (ids);
+        }
+        
+    }
+    
+    /**
+     * Удаление из кэша сведений об отсутствии записей после добавления новых
+     * @param t таблица
+     * @param records добавленные записи
+     */
+    private void invalidateInserted (Table t, List<Map<String, Object>> records) throws SQLException {
+        
+        final EntityCache c = t.getCache ();
+        
+        if (c == null && identityMap == null) return;
+        
+        final List<Col> pk = t.getPk ();
+        
+        if (pk == null || pk.size () != 1) return;
+        
+        final String pkName = pk.get (0).getName ();
+        
+        for (Map<String, Object> r: records) if (r.get (pkName) == null) {
+            if (identityMap != null && identityMap.containsKey (t)) identityMap.get (t).values ().removeIf (v -> v == null);
+            if (c == null) return;
+            c.invalidateMissing ();
+            if (pending != null || !cn.getAutoCommit ()) {
+                if (dirty == null) dirty = new HashMap<> ();
+                dirty.put (t, null);
+            }
+            return;
+        }
+        
+        invalidate (t, records);
+        
     }
     
     /**
@@ -222,20 +493,58 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      * @throws SQLException
      */
     public Map<String, Object> HASH (ResultSet rs) throws SQLException {
+        return getRowReader (rs).toMap (rs);
+    }    
+    
+    /**
+     * Набор процедур чтения полей выборки, построенный по её метаданным.
+     * 
+     * Последний построенный набор запоминается, так что при переборе записей 
+     * одного и того же курсора метаданные запрашиваются только один раз.
+     * 
+     * @param rs курсор
+     * @return процедуры чтения всех полей
+     * @throws SQLException
+     */
+    public final RowReader getRowReader (ResultSet rs) throws SQLException {
+        
+        if (rs == lastResultSet) return lastRowReader;
         
-        ResultSetMetaData metaData = rs.getMetaData ();
+        ResultSetMetaData md = rs.getMetaData ();
         
-        final int cnt = metaData.getColumnCount ();
+        final int cnt = md.getColumnCount ();
         
-        Map <String, Object> m = new HashMap (cnt);
+        String [] names = new String [cnt];
+        int [] types = new int [cnt];
+        ColumnReader [] readers = new ColumnReader [cnt];
         
-        for (int n = 1; n <= cnt; n ++) 
-            if (metaData.getColumnType (n) != java.sql.Types.BLOB) 
-                m.put (metaData.getColumnName (n), getValue (rs, n));
+        for (int n = 1; n <= cnt; n ++) {
+            names   [n - 1] = md.getColumnName (n);
+            types   [n - 1] = md.getColumnType (n);
+            readers [n - 1] = toColumnReader (md, n);
+        }
         
-        return m;
+        lastRowReader = new RowReader (names, types, readers);
+        lastResultSet = rs;
         
-    }    
+        return lastRowReader;
+        
+    }
+    
+    /**
+     * Выбор процедуры чтения поля по его метаданным. 
+     * 
+     * Диалекты переопределяют этот метод, чтобы не разбирать метаданные 
+     * для каждого значения, как это делает getValue.
+     * 
+     * @param md метаданные выборки
+     * @param n номер поля, начиная с 1
+     * @return процедура, возвращающая то же, что getValue (rs, n)
+     * @throws SQLException
+     */
+    protected ColumnReader toColumnReader (ResultSetMetaData md, int n) throws SQLException {
+        return this::getValue;
+    }
     
     /**
      * Не надо вызывать этот конструктор. Используйте model.getDb ()
@@ -245,6 +554,7 @@ public abstract class DB implements AutoCloseable, ParamSetter {
     public DB (Connection cn, Model model) {
         this.cn = cn;
         this.model = model;
+        this.statements = new StatementCache (cn, model.getStatementCacheSize (), model.getStatementCacheStats ());
     }
 
     /**
@@ -304,9 +614,12 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      */
     public final void insert (Table t, List<Map <String, Object>> records) throws SQLException {        
         if (records == null || records.isEmpty ()) return;       
+        final String clientPk = getClientPkName (t);
+        if (clientPk != null) for (Map<String, Object> r: records) fillPk (t, r, clientPk);
         TableRecordListBuilder b = new TableRecordListBuilder (t, records, null);
         genInsertSql (b);
         d0 (b);        
+        invalidateInserted (t, records);
     }
 
     /**
@@ -332,6 +645,7 @@ public abstract class DB implements AutoCloseable, ParamSetter {
         TableRecordSQLBuilder b = new TableRecordSQLBuilder (t, record, Arrays.asList (key));
         genUpsertSql (b);
         d0 (b);        
+        invalidate (t, Collections.singletonList (record), key);
         
     }
         
@@ -374,6 +688,115 @@ public abstract class DB implements AutoCloseable, ParamSetter {
         return upsertId (model.get (c), record, key);
         
     }    
+    
+    /**
+     * Синхронизация пакета записей по заданному ключу с выдачей первичных ключей. 
+     * См. upsertIds (Table, List, String...)
+     * @param c Класс описания таблицы
+     * @param records Список хэшей со значениями полей. Ключевые должны быть указаны, остальные -- не обязательно.
+     * @param key Список имён полей, составляющих ключ синхронизации. Может быть null или пустым -- тогда используется первичный ключ.
+     * @return значения первичного ключа в порядке records
+     * @throws SQLException
+     */
+    public final List<Object> upsertIds (Class c, List<Map <String, Object>> records, String... key) throws SQLException {
+        return upsertIds (model.get (c), records, key);
+    }
+    
+    /**
+     * Синхронизация пакета записей по заданному ключу с выдачей первичных ключей.
+     * 
+     * В отличие от вызова upsertId для каждой записи, здесь MERGE исполняется 
+     * одним пакетом (как upsert (Table, List, String...)), а ключи затем 
+     * читаются запросами по MULTI_GET_BATCH_SIZE значений ключа синхронизации. 
+     * Если ключ синхронизации -- первичный, ключи берутся прямо из records.
+     * 
+     * Первичный ключ должен состоять из одного поля.
+     * 
+     * @param t Описание таблицы
+     * @param records Список хэшей со значениями полей. Ключевые должны быть указаны, остальные -- не обязательно.
+     * @param key Список имён полей, составляющих ключ синхронизации. Может быть null или пустым -- тогда используется первичный ключ.
+     * @return значения первичного ключа (в том виде, как их выдаёт HASH) в порядке records; 
+     * null там, где запись не нашлась
+     * @throws SQLException
+     */
+    public final List<Object> upsertIds (Table t, List<Map <String, Object>> records, String... key) throws SQLException {
+        
+        List<Col> pk = t.getPk ();
+                
+        if (pk.size () != 1) throw new IllegalArgumentException ("Vector PKs are not supported");
+        
+        final String pkColName = pk.get (0).getName ();
+        
+        List<Object> ids = new ArrayList<> (records.size ());
+        
+        if (records.isEmpty ()) return ids;
+        
+        upsert (t, records, key);
+        
+        if (key == null || key.length == 0 || (key.length == 1 && pkColName.equals (key [0]))) {
+            for (Map<String, Object> r: records) ids.add (r.get (pkColName));
+            return ids;
+        }
+        
+        List<Col> keyCols = new ArrayList<> (key.length);
+        
+        for (String k: key) keyCols.add (t.getColumn (k));
+        
+        Map<Object, Object> keys = new LinkedHashMap<> ();
+        
+        for (Map<String, Object> r: records) keys.putIfAbsent (toLookupKey (keyCols, r), keyCols.size () == 1 ? r.get (key [0]) : toVectorKey (keyCols, r));
+        
+        List<String> names = new ArrayList<> (Arrays.asList (key));
+        
+        if (!names.contains (pkColName)) names.add (pkColName);
+        
+        Map<Object, Object> found = new HashMap<> ();
+        
+        for (Map<String, Object> r: getMaps (t, keyCols, new LinkedHashSet<> (keys.values ()), names.toArray (new String [0])).values ()) found.put (toLookupKey (keyCols, r), r.get (pkColName));
+        
+        for (Map<String, Object> r: records) ids.add (found.get (toLookupKey (keyCols, r)));
+        
+        return ids;
+        
+    }
+    
+    /**
+     * Нормализованное значение для сопоставления ключей, заданных вызывающим, 
+     * со значениями из выборки: числа сравниваются без учёта класса и масштаба, 
+     * значения RAW -- как шестнадцатеричные строки в нижнем регистре, так что 
+     * UUID, его строковая запись и byte [] совпадают.
+     */
+    private static Object toLookupKey (Col c, Object v) {
+        
+        if (v == null) return null;
+        
+        if (c.toPhysical ().getType () == JDBCType.VARBINARY) return v instanceof byte [] ? to.hex ((byte []) v).toLowerCase () : v.toString ().replace ("-", "").toLowerCase ();
+        
+        return EntityCache.toKey (v);
+        
+    }
+    
+    private static Object toLookupKey (List<Col> cols, List<?> values) {
+        
+        if (cols.size () == 1) return toLookupKey (cols.get (0), values.get (0));
+        
+        List<Object> key = new ArrayList<> (cols.size ());
+        
+        for (int i = 0; i < cols.size (); i ++) key.add (toLookupKey (cols.get (i), values.get (i)));
+        
+        return key;
+        
+    }
+    
+    private static Object toLookupKey (List<Col> cols, Map<String, Object> r) {
+        
+        List<Object> values = new ArrayList<> (cols.size ());
+        
+        for (Col c: cols) values.add (r.get (c.getName ()));
+        
+        return toLookupKey (cols, values);
+        
+    }
 
     /**
      * Синхронизация пакета записей по заданному ключу БЕЗ УДАЛЕНИЯ.
@@ -412,6 +835,7 @@ public abstract class DB implements AutoCloseable, ParamSetter {
         TableRecordListBuilder b = new TableRecordListBuilder (t, records, Arrays.asList (key));
         genUpsertSql (b);
         d0 (b);        
+        invalidate (t, records, key);
         
     }  
     
@@ -466,6 +890,7 @@ public abstract class DB implements AutoCloseable, ParamSetter {
     public final void upsert (Table t, Table records, String... key) throws SQLException {
 
         d0 (genUpsertSql (t, records, key));
+        invalidate (t, null);
         
     }      
     
@@ -508,6 +933,7 @@ public abstract class DB implements AutoCloseable, ParamSetter {
     public final void truncate (Table t) throws SQLException {
                 
         d0 (genTruncateSql (t));
+        invalidate (t, null);
         
     }      
         
@@ -608,6 +1034,7 @@ public abstract class DB implements AutoCloseable, ParamSetter {
         TableRecordListBuilder b = new TableRecordListBuilder (t, records, Arrays.asList (key));
         genUpdateSql (b);
         d0 (b);        
+        invalidate (t, records, key);
     }
 
     /**
@@ -646,6 +1073,8 @@ public abstract class DB implements AutoCloseable, ParamSetter {
         
         d0 (b);
         
+        invalidate (t, Collections.singletonList (record), key);
+        
     }
     
     /**
@@ -674,6 +1103,7 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      */
     public final void delete (Select s) throws SQLException {
         d0 (toDeleteQP (s));
+        invalidate (s.getTable (), null);
     }
         
     /**
@@ -683,38 +1113,47 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      * @throws SQLException
      */
     public final void execute (SQLBuilder b, JDBCConsumer<PreparedStatement> sub) throws SQLException {
+        execute (b, (st, e) -> {sub.accept (st);});
+    }
+    
+    private void execute (SQLBuilder b, JDBCBiConsumer<PreparedStatement, QueryEvent> sub) throws SQLException {
+        
+        flushBatch ();
         
-        long tsStart = System.currentTimeMillis ();
+        final QueryEvent e = startQuery (b);
+        
+        PreparedStatement st = null;
+        boolean ok = false;
                 
-        try (PreparedStatement st = cn.prepareStatement (b.getSQL ())) {
+        try {
             
-//            long tsPrepared = System.currentTimeMillis ();
-
-            b.setParams (st, this);
+            st = statements.take (b.getSQL ());
             
-//            long tsSet = System.currentTimeMillis ();
+            e.prepared ();
 
-            logger.log (Level.INFO, b.toString ());
+            b.setParams (st, this);
             
-            sub.accept (st);
+            e.bound ();
             
-            long tsDone = System.currentTimeMillis ();
+            sub.accept (st, e);
             
-            logger.log (Level.INFO, 
-                "done, "   +                (tsDone     - tsStart) + " ms"
-//                " ms: prepared in "   +       (tsPrepared - tsStart) + 
-//                " ms, params set in " +       (tsSet      - tsPrepared) + 
-//                " ms, executed/fetched in " + (tsDone     - tsSet)
-            );
+            ok = true;
 
         }
         catch (SQLException ex) {
 
-            logger.log (Level.SEVERE, ex.getMessage () + " for " + b.getSQL ());
+            e.failed (ex);
             
             throw ex;
 
         }
+        finally {
+            
+            if (st != null) if (ok) statements.release (st); else statements.discard (st);
+            
+            endQuery (e);
+            
+        }
         
     }
     
@@ -725,81 +1164,615 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      * @throws SQLException
      */
     public final void d0 (SQLBuilder b) throws SQLException {
+        
+        if (batchSize > 0 && b.isToPrepare () && b.getBatchSize () == 1 && !(b instanceof TableRecordListBuilder)) {
+            defer (b);
+            return;
+        }
 
         if (b.isToPrepare ()) {
-            execute (b, st -> {b.execute (st);});        
+            execute (b, (st, e) -> {
+                e.setRows (b.execute (st));
+                e.executed ();
+            });        
         }
         else {
             
-            long tsStart = System.currentTimeMillis ();
+            flushBatch ();
+            
+            final QueryEvent e = startQuery (b);
             
-            logger.log (Level.INFO, b.toString ());
+            e.unprepared ();
 
             try (Statement st = cn.createStatement ()) {
                 st.execute (b.getSQL ());
             }
-            
-            long tsDone = System.currentTimeMillis ();
-            
-            logger.log (Level.INFO, "Done in " + (tsDone - tsStart) + " ms");
+            catch (SQLException ex) {
+                e.failed (ex);
+                throw ex;
+            }
+            finally {
+                endQuery (e);
+            }
             
         }
 
     }
-
+    
+    private void defer (SQLBuilder b) throws SQLException {
+        
+        if (pending != null && !pending.accepts (b)) flushBatch ();
+        
+        if (pending == null) pending = new StatementBatch (b); else pending.add (b);
+        
+        if (pending.getBatchSize () >= batchSize) flushBatch ();
+        
+    }
+    
     /**
-     * Обработка первой (и только первой) записи выборки по заданному Select.
-     * 
-     * Если есть ещё записи, они игнорируются.
+     * Исполнение DML-запросов, накопленных внутри batch (), если таковые есть.
      * 
-     * Если выборка пуста, обработчик не вызывается -- и всё (ошибки не возникает).
+     * Вызывается автоматически перед любым другим обращением к БД через 
+     * этот DB, перед commit и по окончании batch (), так что вызывать его 
+     * явно обычно не требуется.
      * 
-     * @param s запрос
-     * @param sub обработчик 1-й записи
      * @throws SQLException
      */
-    public final void forFirst (Select s, JDBCConsumer<ResultSet> sub) throws SQLException {
-        DB.this.forFirst (toQP (s), sub);        
+    public final void flushBatch () throws SQLException {
+        
+        if (pending == null) return;
+        
+        final StatementBatch b = pending;
+        
+        pending = null;
+        
+        execute (b, (st, e) -> {
+            e.setRows (b.execute (st));
+            e.executed ();
+        });
+        
+        if (cn.getAutoCommit ()) flushInvalidations ();
+        
     }
     
     /**
-     * Обработка первой (и только первой) записи выборки по заданному Select.
+     * Исполнение блока кода с пакетной отправкой DML-запросов.
      * 
-     * Если есть ещё записи, они игнорируются.
+     * Запросы с параметрами, выдаваемые внутри r через d0 (SQLBuilder) -- в том числе 
+     * d0 (String, ...), update (Table, Map, ...) и т. п. -- не исполняются сразу, а 
+     * накапливаются. Подряд идущие запросы с одинаковым текстом SQL отправляются 
+     * одним пакетом (addBatch/executeBatch) по достижении DEFAULT_BATCH_SIZE штук, 
+     * при смене текста SQL, перед любым другим обращением к БД и по окончании r. 
+     * Порядок исполнения запросов сохраняется.
      * 
-     * Если выборка пуста, обработчик не вызывается -- и всё (ошибки не возникает).
+     * Списочные операции (insert (Table, List), update (Table, List) и т. п.) 
+     * сами отправляются пакетом, поэтому не откладываются, даже если 
+     * в списке одна запись: перед ними отправляется всё накопленное.
      * 
-     * @param qp SQL + параметры
-     * @param sub обработчик 1-й записи
-     * @throws SQLException
-     */
-    public final void forFirst (QP qp, JDBCConsumer<ResultSet> sub) throws SQLException {        
-        execute (qp, st -> {try (ResultSet rs = st.executeQuery ()) {
-            if (rs.next ()) sub.accept (rs);
-        }});        
-    }
-    
-    /**
-     * Прогон обработчика по всей выборке.
-     * @param qp SQL + параметры
-     * @param sub обработчик
+     * Ошибка отложенного запроса возникает не там, где он выдан, а при отправке пакета.
+     * Если r завершился исключением, ещё не отправленные запросы отбрасываются.
+     * 
+     * Вложенные вызовы batch () исполняются в рамках внешнего.
+     * 
+     * @param r блок кода
      * @throws SQLException
      */
-    public final void forEach (QP qp, JDBCConsumer<ResultSet> sub) throws SQLException {        
-        execute (qp, st -> {try (ResultSet rs = st.executeQuery ()) {
-            while (rs.next ()) sub.accept (rs);
-        }});        
+    public final void batch (JDBCRunnable r) throws SQLException {
+        batch (DEFAULT_BATCH_SIZE, r);
     }
     
     /**
-     * Прогон обработчика по всей выборке.
-     * @param s Запрос
-     * @param sub обработчик
+     * Исполнение блока кода с пакетной отправкой DML-запросов. См. batch (JDBCRunnable).
+     * @param size максимальное число запросов в одном пакете
+     * @param r блок кода
      * @throws SQLException
      */
-    public final void forEach (Select s, JDBCConsumer<ResultSet> sub) throws SQLException {
+    public final void batch (int size, JDBCRunnable r) throws SQLException {
+        
+        if (size < 1) throw new IllegalArgumentException ("Illegal batch size: " + size);
+        
+        if (batchSize > 0) {
+            r.run ();
+            return;
+        }
+        
+        final boolean autoCommit = cn.getAutoCommit ();
+        
+        batchSize = size;
+        
+        boolean ok = false;
+        
+        try {
+            r.run ();
+            ok = true;
+        }
+        finally {
+            batchSize = 0;
+            if (!ok) {
+                pending = null;
+                if (autoCommit) flushInvalidations ();
+            }
+        }
+        
+        flushBatch ();
+        
+    }
+
+    /**
+     * Обработка первой (и только первой) записи выборки по заданному Select.
+     * 
+     * Если есть ещё записи, они игнорируются.
+     * 
+     * Если выборка пуста, обработчик не вызывается -- и всё (ошибки не возникает).
+     * 
+     * @param s запрос
+     * @param sub обработчик 1-й записи
+     * @throws SQLException
+     */
+    public final void forFirst (Select s, JDBCConsumer<ResultSet> sub) throws SQLException {
+        DB.this.forFirst (toQP (s), sub);        
+    }
+    
+    /**
+     * Обработка первой (и только первой) записи выборки по заданному Select.
+     * 
+     * Если есть ещё записи, они игнорируются.
+     * 
+     * Если выборка пуста, обработчик не вызывается -- и всё (ошибки не возникает).
+     * 
+     * @param qp SQL + параметры
+     * @param sub обработчик 1-й записи
+     * @throws SQLException
+     */
+    public final void forFirst (QP qp, JDBCConsumer<ResultSet> sub) throws SQLException {        
+        execute (qp, (st, e) -> {
+            st.setMaxRows (1);
+            st.setFetchSize (1);
+            try (ResultSet rs = st.executeQuery ()) {
+                e.executed ();
+                final boolean found = rs.next ();
+                e.setRows (found ? 1 : 0);
+                if (found) sub.accept (rs);
+            }
+        });        
+    }
+    
+    /**
+     * Прогон обработчика по всей выборке.
+     * @param qp SQL + параметры
+     * @param sub обработчик
+     * @throws SQLException
+     */
+    public final void forEach (QP qp, JDBCConsumer<ResultSet> sub) throws SQLException {        
+        execute (qp, (st, e) -> {
+            st.setMaxRows (0);
+            st.setFetchSize (qp.getFetchSize () > 0 ? qp.getFetchSize () : DEFAULT_FETCH_SIZE);
+            try (ResultSet rs = st.executeQuery ()) {
+                e.executed ();
+                long n = 0L;
+                while (rs.next ()) {
+                    n ++;
+                    sub.accept (rs);
+                }
+                e.setRows (n);
+            }
+        });        
+    }
+    
+    /**
+     * Прогон обработчика по всей выборке.
+     * @param s Запрос
+     * @param sub обработчик
+     * @throws SQLException
+     */
+    public final void forEach (Select s, JDBCConsumer<ResultSet> sub) throws SQLException {
         forEach (toQP (s), sub);
     }
+    
+    /**
+     * Прогон обработчика по всей выборке без построения хэшей.
+     * 
+     * Обработчику для каждой записи передаётся один и тот же объект Row, 
+     * через который доступны значения полей текущей записи.
+     * 
+     * @param s запрос
+     * @param sub обработчик
+     * @throws SQLException
+     */
+    public final void scan (Select s, JDBCConsumer<Row> sub) throws SQLException {
+        scan (toQP (s), sub);
+    }
+    
+    /**
+     * Прогон обработчика по всей выборке без построения хэшей. См. scan (Select).
+     * @param qp SQL + параметры
+     * @param sub обработчик
+     * @throws SQLException
+     */
+    public final void scan (QP qp, JDBCConsumer<Row> sub) throws SQLException {
+        final Row row = new Row (this);
+        forEach (qp, rs -> {sub.accept (row.wrap (rs));});
+    }
+    
+    /**
+     * Ленивая выборка в виде потока записей-хэшей (см. HASH (ResultSet)).
+     * 
+     * Записи читаются из открытого курсора по мере надобности, так что 
+     * limit, findFirst и т. п. не приводят к чтению всей выборки. Курсор 
+     * закрывается по исчерпании выборки либо при закрытии потока, поэтому 
+     * поток надо использовать только в блоке try-with:
+     * 
+     *     try (Stream<Map<String, Object>> s = db.stream (select)) {
+     *          ...
+     *     }
+     * 
+     * Ошибки JDBC при чтении передаются как IllegalStateException с SQLException в качестве причины.
+     * 
+     * @param s запрос
+     * @return поток записей
+     * @throws SQLException при ошибке исполнения запроса
+     */
+    public final Stream<Map<String, Object>> stream (Select s) throws SQLException {
+        return stream (toQP (s));
+    }
+    
+    /**
+     * Ленивая выборка в виде потока записей-хэшей. См. stream (Select).
+     * @param qp SQL + параметры
+     * @return поток записей
+     * @throws SQLException при ошибке исполнения запроса
+     */
+    public final Stream<Map<String, Object>> stream (QP qp) throws SQLException {
+        return stream (qp, this::HASH);
+    }
+    
+    /**
+     * Ленивая выборка в виде потока объектов, построенных по очередным записям. См. stream (Select).
+     * @param s запрос
+     * @param f преобразователь текущей записи курсора в объект (не null)
+     * @return поток объектов
+     * @throws SQLException при ошибке исполнения запроса
+     */
+    public final <T> Stream<T> stream (Select s, JDBCFunction<ResultSet, T> f) throws SQLException {
+        return stream (toQP (s), f);
+    }
+    
+    /**
+     * Ленивая выборка в виде потока объектов, построенных по очередным записям. См. stream (Select).
+     * @param qp SQL + параметры
+     * @param f преобразователь текущей записи курсора в объект (не null)
+     * @return поток объектов
+     * @throws SQLException при ошибке исполнения запроса
+     */
+    public final <T> Stream<T> stream (QP qp, JDBCFunction<ResultSet, T> f) throws SQLException {
+        Cursor<T> cursor = new Cursor<> (qp, f);
+        return StreamSupport.stream (cursor, false).onClose (cursor::close);
+    }
+    
+    /**
+     * Постраничный перебор выборки с листанием по ключу (см. Select.after).
+     * 
+     * Каждая страница -- отдельный запрос с limit (0, pageSize), начинающийся 
+     * сразу за последней записью предыдущей страницы, так что её стоимость 
+     * не зависит от номера страницы. Курсор между страницами не держится.
+     * 
+     * Запрос s при этом меняется: к ORDER BY дописывается первичный ключ, 
+     * а limit и after выставляются на каждой странице.
+     * 
+     * Ошибки JDBC передаются как IllegalStateException с SQLException в качестве причины.
+     * 
+     * @param s запрос
+     * @param pageSize число записей на странице
+     * @return страницы записей, полученных как HASH; пустых страниц не бывает
+     */
+    public final Iterator<List<Map<String, Object>>> pages (Select s, int pageSize) {
+        
+        if (pageSize < 1) throw new IllegalArgumentException ("Illegal pageSize value: " + pageSize);
+        
+        s.after (null);
+        
+        return new Iterator<List<Map<String, Object>>> () {
+            
+            List<Map<String, Object>> page = null;
+            boolean done = false;
+
+            @Override
+            public boolean hasNext () {
+                
+                if (page != null) return true;
+                
+                if (done) return false;
+                
+                try {
+                    page = getList (s.limit (0, pageSize));
+                }
+                catch (SQLException ex) {
+                    throw new IllegalStateException (ex);
+                }
+                
+                if (page.size () < pageSize) {
+                    done = true;
+                }
+                else {
+                    s.after (page.get (page.size () - 1));
+                }
+                
+                if (page.isEmpty ()) page = null;
+                
+                return page != null;
+                
+            }
+
+            @Override
+            public List<Map<String, Object>> next () {
+                if (!hasNext ()) throw new NoSuchElementException ();
+                final List<Map<String, Object>> result = page;
+                page = null;
+                return result;
+            }
+            
+        };
+        
+    }
+    
+    /**
+     * Курсор, открытый на время жизни потока, выданного методом stream ()
+     */
+    private final class Cursor<T> extends Spliterators.AbstractSpliterator<T> {
+        
+        final QueryEvent e;
+        final JDBCFunction<ResultSet, T> f;
+        PreparedStatement st;
+        ResultSet rs;
+        long n = 0L;
+        boolean closed = false;
+        
+        Cursor (QP qp, JDBCFunction<ResultSet, T> f) throws SQLException {
+            
+            super (Long.MAX_VALUE, ORDERED | NONNULL);
+            
+            flushBatch ();
+            
+            this.f = f;
+            this.e = startQuery (qp);
+            
+            try {
+                st = statements.take (qp.getSQL ());
+                e.prepared ();
+                qp.setParams (st, DB.this);
+                e.bound ();
+                st.setMaxRows (0);
+                st.setFetchSize (qp.getFetchSize () > 0 ? qp.getFetchSize () : DEFAULT_FETCH_SIZE);
+                rs = st.executeQuery ();
+                e.executed ();
+            }
+            catch (SQLException ex) {
+                fail (ex);
+                throw ex;
+            }
+            
+        }
+        
+        @Override
+        public boolean tryAdvance (Consumer<? super T> action) {
+            
+            if (closed) return false;
+            
+            final T t;
+            
+            try {
+                
+                if (!rs.next ()) {
+                    close ();
+                    return false;
+                }
+                
+                n ++;
+                
+                t = f.apply (rs);
+                
+            }
+            catch (SQLException ex) {
+                fail (ex);
+                throw new IllegalStateException (ex);
+            }
+            
+            action.accept (t);
+            
+            return true;
+            
+        }
+        
+        private void fail (SQLException ex) {
+            e.failed (ex);
+            close ();
+        }
+        
+        void close () {
+            
+            if (closed) return;
+            
+            closed = true;
+            
+            if (rs != null) try {
+                rs.close ();
+            }
+            catch (SQLException ex) {
+                if (!e.isFailed ()) e.failed (ex);
+            }
+            
+            if (st != null) if (e.isFailed ()) statements.discard (st); else statements.release (st);
+            
+            e.setRows (n);
+            
+            endQuery (e);
+            
+        }
+        
+    }
+                
+    /**
+     * Добавление в таблицу пакета записей с возвратом первичных ключей. 
+     * См. insertIds (Table, List)
+     * @param c Класс описания таблицы
+     * @param records Записи, которые надо добавить
+     * @return Первичные ключи добавленных записей в том же порядке
+     * @throws SQLException
+     */
+    public final List<Object> insertIds (Class c, List<Map<String, Object>> records) throws SQLException {
+        return insertIds (model.get (c), records);
+    }
+
+    /**
+     * Добавление в таблицу пакета записей с возвратом первичных ключей.
+     * 
+     * Как и в insertId, значения первичного ключа в записях игнорируются 
+     * (и удаляются из них). Если значение PK по умолчанию -- UUID либо 
+     * для таблицы задана последовательность (Table.sequence), ключи 
+     * генерируются на клиенте и записи добавляются одним пакетом без 
+     * getGeneratedKeys. Иначе, если драйвер умеет выдавать ключи пакета 
+     * (см. isBatchGeneratedKeysSupported), -- одним пакетом с getGeneratedKeys, 
+     * а если нет -- по одной, как insertId.
+     * 
+     * Первичный ключ должен состоять из одного поля. Набор полей 
+     * определяется по первой записи (как в insert (Table, List)).
+     * 
+     * @param t Описание таблицы
+     * @param records Записи, которые надо добавить
+     * @return Первичные ключи добавленных записей в том же порядке
+     * @throws SQLException
+     */
+    public final List<Object> insertIds (Table t, List<Map<String, Object>> records) throws SQLException {
+        
+        List<Col> pk = t.getPk ();
+                
+        if (pk.size () != 1) throw new IllegalArgumentException ("Vector PKs are not supported");
+        
+        final String pkColName = pk.get (0).getName ();
+        
+        List<Object> ids = new ArrayList<> (records.size ());
+        
+        if (records.isEmpty ()) return ids;
+        
+        if (pkColName.equals (getClientPkName (t))) {
+            
+            for (Map<String, Object> r: records) {
+                r.remove (pkColName);
+                fillPk (t, r, pkColName);
+                ids.add (r.get (pkColName));
+            }
+            
+            insert (t, records);
+            
+            return ids;
+            
+        }
+        
+        if (!isBatchGeneratedKeysSupported ()) {
+            for (Map<String, Object> r: records) ids.add (insertId (t, r));
+            return ids;
+        }
+        
+        for (Map<String, Object> r: records) r.remove (pkColName);
+        
+        TableRecordListBuilder b = new TableRecordListBuilder (t, records, null);
+        
+        genInsertSql (b);
+        
+        flushBatch ();
+        
+        final QueryEvent e = startQuery (b);
+        
+        PreparedStatement st = null;
+        boolean ok = false;
+        
+        try {
+            
+            st = statements.take (b.getSQL (), new String [] {pkColName});
+            
+            e.prepared ();
+            
+            b.setParams (st, this);
+            
+            e.bound ();
+            
+            e.setRows (b.execute (st));
+            
+            e.executed ();
+            
+            try (ResultSet rs = st.getGeneratedKeys ()) {
+                while (rs.next ()) ids.add (getValue (rs, 1));
+            }
+            
+            if (ids.size () != records.size ()) throw new SQLException ("Got " + ids.size () + " generated keys for " + records.size () + " records inserted in " + t.getName ());
+                
+            ok = true;
+                
+            invalidateInserted (t, records);
+
+            return ids;
+            
+        }
+        catch (SQLException ex) {
+            
+            e.failed (ex);
+            
+            throw ex;
+            
+        }
+        finally {
+            
+            if (st != null) if (ok) statements.release (st); else statements.discard (st);
+            
+            endQuery (e);
+            
+        }
+        
+    }
+                
+    /**
+     * Имя поля первичного ключа, значения которого генерируются 
+     * на клиенте при вставке записей без него: UUID (см. ru.eludia.base.model.def.UUID) 
+     * либо из последовательности (см. Table.sequence)
+     * @param t Описание таблицы
+     * @return имя единственного поля PK со значением по умолчанию Def.NEW_UUID 
+     * или с последовательностью либо null
+     */
+    private static String getClientPkName (Table t) {
+        final List<Col> pk = t.getPk ();
+        if (pk == null || pk.size () != 1) return null;
+        final Col c = pk.get (0);
+        return c.getDef () instanceof ru.eludia.base.model.def.UUID || t.getSequence () != null ? c.getName () : null;
+    }
+    
+    private void fillPk (Table t, Map<String, Object> r, String pkColName) throws SQLException {
+        if (r.get (pkColName) != null) return;
+        final Sequence seq = t.getSequence ();
+        r.put (pkColName, seq == null ? ru.eludia.base.model.def.UUID.next () : seq.next (this));
+    }
+    
+    /**
+     * Очередная порция значений последовательности, полученная одним запросом. 
+     * Обычно вызывается из Sequence.next, а не напрямую.
+     * @param seq последовательность
+     * @param n число значений
+     * @return n значений в порядке выдачи сервером
+     * @throws SQLException
+     */
+    public final long [] nextValues (Sequence seq, int n) throws SQLException {
+        
+        final long [] result = new long [n];
+        final int [] i = {0};
+        
+        forEach (genNextValuesSql (seq, n), rs -> {
+            if (i [0] < n) result [i [0] ++] = rs.getLong (1);
+        });
+        
+        if (i [0] < n) throw new SQLException ("Got " + i [0] + " of " + n + " values from " + seq.getName ());
+        
+        return result;
+        
+    }
                 
     private final TableRecordSQLBuilder createInsertSQLBuilder (Table t, Map<String, Object> r) throws SQLException {
         TableRecordSQLBuilder b = new TableRecordSQLBuilder (t, r, null);
@@ -834,75 +1807,339 @@ public abstract class DB implements AutoCloseable, ParamSetter {
         final String pkColName = pk.get (0).getName ();
 
         r.remove (pkColName);
+        
+        if (pkColName.equals (getClientPkName (t))) {
+            fillPk (t, r, pkColName);
+            insert (t, r);
+            return r.get (pkColName);
+        }
                 
         TableRecordSQLBuilder b = createInsertSQLBuilder (t, r);
         
-        try (PreparedStatement st = cn.prepareStatement (b.getSQL (), new String [] {pkColName})) {
+        flushBatch ();
+        
+        final QueryEvent e = startQuery (b);
+        
+        PreparedStatement st = null;
+        boolean ok = false;
+        
+        try {
+            
+            st = statements.take (b.getSQL (), new String [] {pkColName});
+            
+            e.prepared ();
+            
+            b.setParams (st, this);
+            
+            e.bound ();
+            
+            e.setRows (st.executeUpdate ());
+            
+            e.executed ();
+            
+            try (ResultSet rs = st.getGeneratedKeys ()) {
+                
+                rs.next ();
+                
+                Object id = getValue (rs, 1);
+                
+                ok = true;
+                
+                invalidateInserted (t, Collections.singletonList (r));
+
+                return id;
+                
+            }
+            
+        }
+        catch (SQLException ex) {
+            
+            e.failed (ex);
+            
+            throw ex;
+            
+        }
+        finally {
+            
+            if (st != null) if (ok) statements.release (st); else statements.discard (st);
+            
+            endQuery (e);
+            
+        }
+                
+    }
+
+    /**
+     * Добавление в таблицу отдельной записи БЕЗ возврата первичного ключа 
+     * (для скорости)
+     * @param c Класс описания таблицы
+     * @param r Запись, которую надо добавить
+     * @throws SQLException
+     */
+    public final void insert (Class c, Map<String, Object> r) throws SQLException {
+
+        insert (model.get (c), r);
+      
+    }
+
+    /**
+     * Добавление в таблицу отдельной записи БЕЗ возврата первичного ключа 
+     * (для скорости)
+     * @param t Описание таблицы
+     * @param r Запись, которую надо добавить
+     * @throws SQLException
+     */
+    public final void insert (Table t, Map<String, Object> r) throws SQLException {
+        
+        final String clientPk = getClientPkName (t);
+        
+        if (clientPk != null) fillPk (t, r, clientPk);
+
+        d0 (createInsertSQLBuilder (t, r));
+        
+        invalidateInserted (t, Collections.singletonList (r));
+      
+    }
+
+    /**
+     * Получение по первичному ключу нужной записи в виде хэша.
+     * @param clazz Класс описания таблицы
+     * @param id Первичный ключ записи
+     * @return Запись в виде хэша, либо null, если она не найдена
+     * @throws SQLException
+     */
+    public final Map<String, Object> getMap (Class clazz, Object id) throws SQLException {
+        return getMap (model.get (clazz), id);
+    }
+
+    /**
+     * Получение по первичному ключу нужной записи в виде хэша.
+     * @param t Описание таблицы
+     * @param id Первичный ключ записи
+     * @return Запись в виде хэша, либо null, если она не найдена
+     * @throws SQLException
+     */
+    public final Map<String, Object> getMap (Table t, Object id) throws SQLException {
+        
+        if (isIdentityMapped (t, id)) {
+            final Map<String, Object> r = getIdentity (t, id);
+            return r == null ? null : new LinkedHashMap<> (r);
+        }
+        
+        if (id == null) return getMap (new Get (t, id, "*"));
+        
+        return getMapByPk (t, id);
+        
+    }
+    
+    /**
+     * Максимальное число ключей в одном запросе getMaps
+     */
+    public static final int MULTI_GET_BATCH_SIZE = 128;
+
+    /**
+     * Получение записей по списку первичных ключей. См. getMaps (Table, Collection, String...)
+     * @param clazz Класс описания таблицы
+     * @param ids Первичные ключи
+     * @param cols Список полей (если пуст -- все поля)
+     * @return Map: первичный ключ → запись в виде хэша
+     * @throws SQLException
+     */
+    public final Map<Object, Map<String, Object>> getMaps (Class clazz, Collection<?> ids, String... cols) throws SQLException {
+        return getMaps (model.get (clazz), ids, cols);
+    }
+
+    /**
+     * Получение записей по списку первичных ключей за несколько запросов, 
+     * а не за отдельный запрос на каждый ключ.
+     * 
+     * Ключи разбиваются на порции по MULTI_GET_BATCH_SIZE; неполная порция 
+     * дополняется повтором последнего ключа до степени двойки, чтобы 
+     * число различных текстов SQL (и подготовленных запросов) оставалось небольшим.
+     * 
+     * Для составного первичного ключа каждый ключ задаётся хэшем с именами полей PK, 
+     * списком либо массивом их значений в порядке getPk (); в SQL порция 
+     * превращается в (a=? AND b=?) OR (a=? AND b=?) ...
+     * 
+     * @param t Описание таблицы
+     * @param ids Первичные ключи (null и повторы пропускаются)
+     * @param cols Список полей (если пуст -- все поля); поля PK добавляются при необходимости
+     * @return Map, где ключи -- элементы ids в том виде, как их передал вызывающий 
+     * (Integer, строка с UUID и т. п.; сопоставляются со значениями из БД 
+     * после нормализации), а значения -- записи в виде хэшей. 
+     * Ненайденных записей в ней нет.
+     * @throws SQLException
+     */
+    public final Map<Object, Map<String, Object>> getMaps (Table t, Collection<?> ids, String... cols) throws SQLException {
+        
+        final List<Col> pk = t.getPk ();
+        
+        if (pk == null || pk.isEmpty ()) throw new IllegalArgumentException ("No PK defined for " + t.getName ());
+        
+        final String [] names = toMultiGetColumns (pk, cols);
+        
+        Set<Object> keys = new LinkedHashSet<> ();
+        
+        Map<Object, List<Object>> callerIds = new HashMap<> ();
+        
+        for (Object id: ids) {
+            
+            if (id == null) continue;
+            
+            final Object key = pk.size () == 1 ? id : toVectorKey (pk, id);
+            
+            final Object lookupKey = pk.size () == 1 ? toLookupKey (pk.get (0), key) : toLookupKey (pk, (List<?>) key);
+            
+            List<Object> same = callerIds.get (lookupKey);
+            
+            if (same == null) {
+                callerIds.put (lookupKey, same = new ArrayList<> (1));
+                keys.add (key);
+            }
+            
+            if (!same.contains (id)) same.add (id);
+            
+        }
+        
+        Map<Object, Map<String, Object>> result = new HashMap<> ();
+        
+        for (Map<String, Object> r: getMaps (t, pk, keys, names).values ()) {
+            
+            final List<Object> same = callerIds.get (toLookupKey (pk, r));
+            
+            if (same == null) continue;
+            
+            for (int i = 0; i < same.size (); i ++) result.put (same.get (i), i == 0 ? r : new LinkedHashMap<> (r));
+            
+        }
+        
+        return result;
+        
+    }
+    
+    private Map<Object, Map<String, Object>> getMaps (Table t, List<Col> pk, Set<Object> keys, String [] names) throws SQLException {
+        
+        Map<Object, Map<String, Object>> result = new HashMap<> ();
+        
+        List<Object> chunk = new ArrayList<> (MULTI_GET_BATCH_SIZE);
+        
+        for (Object key: keys) {
+            
+            chunk.add (key);
+            
+            if (chunk.size () < MULTI_GET_BATCH_SIZE) continue;
+            
+            getMaps (t, pk, chunk, names, result);
+            
+            chunk.clear ();
+            
+        }
+        
+        if (!chunk.isEmpty ()) getMaps (t, pk, chunk, names, result);
+        
+        return result;
+        
+    }
+    
+    private void getMaps (Table t, List<Col> pk, List<Object> chunk, String [] names, Map<Object, Map<String, Object>> result) throws SQLException {
+        
+        int n = 1;
+        
+        while (n < chunk.size ()) n <<= 1;
+        
+        final Object last = chunk.get (chunk.size () - 1);
+        
+        while (chunk.size () < n) chunk.add (last);
+        
+        final Select s = new Select (t, names);
+        
+        final QP qp;
+        
+        if (pk.size () == 1) {
+            qp = toQP (s.where (pk.get (0).getName () + " IN", chunk.toArray ()));
+        }
+        else {
+            
+            qp = toQP (s);
+            
+            qp.append (" WHERE ");
+            
+            for (Object key: chunk) {
+                
+                if (qp.getLastChar () == ')') qp.append (" OR ");
+                
+                final List<?> values = (List<?>) key;
+                
+                for (int i = 0; i < pk.size (); i ++) {
+                    final Col c = pk.get (i);
+                    qp.append (i == 0 ? "(" : " AND ");
+                    qp.append (t.getName ());
+                    qp.append ('.');
+                    qp.add (c.getName () + "=?", values.get (i), c.toPhysical ());
+                }
+                
+                qp.append (')');
+                
+            }
+            
+        }
+        
+        forEach (qp, rs -> {
+            
+            final Map<String, Object> r = HASH (rs);
             
-            b.setParams (st, this);
+            if (pk.size () == 1) {
+                result.put (r.get (pk.get (0).getName ()), r);
+                return;
+            }
             
-            logger.log (Level.INFO, b.toString ());
+            List<Object> key = new ArrayList<> (pk.size ());
             
-            st.executeUpdate ();            
+            for (Col c: pk) key.add (r.get (c.getName ()));
             
-            try (ResultSet rs = st.getGeneratedKeys ()) {
-                
-                rs.next ();
-
-                return getValue (rs, 1);
-                
-            }
+            result.put (key, r);
             
-        }        
-                
-    }
-
-    /**
-     * Добавление в таблицу отдельной записи БЕЗ возврата первичного ключа 
-     * (для скорости)
-     * @param c Класс описания таблицы
-     * @param r Запись, которую надо добавить
-     * @throws SQLException
-     */
-    public final void insert (Class c, Map<String, Object> r) throws SQLException {
-
-        insert (model.get (c), r);
-      
-    }
-
-    /**
-     * Добавление в таблицу отдельной записи БЕЗ возврата первичного ключа 
-     * (для скорости)
-     * @param t Описание таблицы
-     * @param r Запись, которую надо добавить
-     * @throws SQLException
-     */
-    public final void insert (Table t, Map<String, Object> r) throws SQLException {
-
-        d0 (createInsertSQLBuilder (t, r));
-      
+        });
+        
     }
-
-    /**
-     * Получение по первичному ключу нужной записи в виде хэша.
-     * @param clazz Класс описания таблицы
-     * @param id Первичный ключ записи
-     * @return Запись в виде хэша, либо null, если она не найдена
-     * @throws SQLException
-     */
-    public final Map<String, Object> getMap (Class clazz, Object id) throws SQLException {
-        return getMap (model.get (clazz), id);
+    
+    private static String [] toMultiGetColumns (List<Col> pk, String [] cols) {
+        
+        if (cols.length == 0) return new String [] {"*"};
+        
+        List<String> names = new ArrayList<> (Arrays.asList (cols));
+        
+        if (names.contains ("*")) return cols;
+        
+        for (Col c: pk) if (!names.contains (c.getName ())) names.add (c.getName ());
+        
+        return names.toArray (new String [0]);
+        
     }
-
-    /**
-     * Получение по первичному ключу нужной записи в виде хэша.
-     * @param t Описание таблицы
-     * @param id Первичный ключ записи
-     * @return Запись в виде хэша, либо null, если она не найдена
-     * @throws SQLException
-     */
-    public final Map<String, Object> getMap (Table t, Object id) throws SQLException {
-        return getMap (new Get (t, id, "*"));
+    
+    private static List<Object> toVectorKey (List<Col> pk, Object id) {
+        
+        List<Object> key = new ArrayList<> (pk.size ());
+        
+        if (id instanceof Map) {
+            for (Col c: pk) key.add (((Map) id).get (c.getName ()));
+        }
+        else if (id instanceof List) {
+            key.addAll ((List) id);
+        }
+        else if (id instanceof Object []) {
+            key.addAll (Arrays.asList ((Object []) id));
+        }
+        else {
+            throw new IllegalArgumentException ("Vector PK value must be a Map, a List or an array: " + id);
+        }
+        
+        if (key.size () != pk.size ()) throw new IllegalArgumentException ("Wrong number of PK values: " + id);
+        
+        for (Object v: key) if (v == null) throw new IllegalArgumentException ("NULL in vector PK value: " + id);
+        
+        return key;
+        
     }
 
     /**
@@ -964,7 +2201,22 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      * @throws SQLException
      */    
     public final String getString (Table table, Object id, String field) throws SQLException {                
+        
+        if (isIdentityMapped (table, id)) {
+            
+            final Map<String, Object> r = getIdentity (table, id);
+            
+            if (r == null) return null;
+            
+            final Object v = r.get (field.toLowerCase ());
+            
+            if (v == null && r.containsKey (field.toLowerCase ())) return "";
+            if (v instanceof String || v instanceof Number) return v.toString ();
+            
+        }
+        
         return getString (toQP (new Get (table, id, field)));        
+        
     }
     
     /**
@@ -1124,7 +2376,22 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      * @throws SQLException
      */
     public final Integer getInteger (Table table, Object id, String field) throws SQLException {                
+        
+        if (isIdentityMapped (table, id)) {
+            
+            final Map<String, Object> r = getIdentity (table, id);
+            
+            if (r == null) return null;
+            
+            final Object v = r.get (field.toLowerCase ());
+            
+            if (v == null && r.containsKey (field.toLowerCase ())) return 0;
+            if (v instanceof Number) return ((Number) v).intValue ();
+            
+        }
+        
         return getInteger (toQP (new Get (table, id, field)));        
+        
     }
 
     /**
@@ -1196,7 +2463,24 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      * @throws SQLException
      */
     public final JsonObject getJsonObject (Table t, Object id) throws SQLException {
-        return getJsonObject (new Get (t, id, "*"));
+        
+        if (t.getCache () == null && !isIdentityMapped (t, id)) return getJsonObject (new Get (t, id, "*"));
+        
+        final Map<String, Object> r = getMap (t, id);
+        
+        if (r == null) return null;
+        
+        JsonObjectBuilder jb = Json.createObjectBuilder ();
+        
+        r.forEach ((k, v) -> {
+            if (v == null) return;
+            if (v instanceof Integer) jb.add (k, ((Integer) v).intValue ());
+            else if (v instanceof Long) jb.add (k, ((Long) v).longValue ());
+            else jb.add (k, v.toString ());
+        });
+        
+        return jb.build ();
+        
     }
     
     /**
@@ -1216,7 +2500,7 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      * @throws SQLException
      */
     public final JsonObject getJsonObject (ResultSet rs) throws SQLException {
-        return getJsonObjectBuilder (rs, rs.getMetaData ()).build ();
+        return getJsonObjectBuilder (rs, getRowReader (rs)).build ();
     }
     
     /**
@@ -1226,29 +2510,42 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      * @throws SQLException
      */
     public final JsonObjectBuilder getJsonObjectBuilder (ResultSet rs) throws SQLException {
-        return getJsonObjectBuilder (rs, rs.getMetaData ());
+        return getJsonObjectBuilder (rs, getRowReader (rs));
     }
 
     /**
-     * Выдача очередной записи выборки в виде открытого для записи JSON-объекта (оптимизированный вариант).
+     * Выдача очередной записи выборки в виде открытого для записи JSON-объекта.
      * @param rs курсор, для которого был успешно вызван next ()
-     * @param md предварительно закэшированные метаданные.
+     * @param md метаданные: не используются, вместо них берётся getRowReader (rs).
      * @return Запись как JSON-объект
      * @throws SQLException
      */
     public final JsonObjectBuilder getJsonObjectBuilder (ResultSet rs, ResultSetMetaData md) throws SQLException {
+        return getJsonObjectBuilder (rs, getRowReader (rs));
+    }
+
+    /**
+     * Выдача очередной записи выборки в виде открытого для записи JSON-объекта.
+     * @param rs курсор, для которого был успешно вызван next ()
+     * @param reader процедуры чтения полей этого курсора (см. getRowReader)
+     * @return Запись как JSON-объект
+     * @throws SQLException
+     */
+    public final JsonObjectBuilder getJsonObjectBuilder (ResultSet rs, RowReader reader) throws SQLException {
         
         JsonObjectBuilder jb = Json.createObjectBuilder ();
+        
+        final int cnt = reader.getColumnCount ();
                 
-        for (int n = 1; n <= md.getColumnCount (); n ++) {
+        for (int n = 1; n <= cnt; n ++) {
             
-            if (md.getColumnType (n) == java.sql.Types.BLOB) continue;
+            if (reader.isHidden (n)) continue;
 
-            Object v = getValue (rs, n);
+            Object v = reader.read (rs, n);
 
             if (v == null) continue;
 
-            final String columnName = md.getColumnName (n);
+            final String columnName = reader.getName (n);
 
             if (v instanceof Integer) {
                 jb.add (columnName, ((Integer) v).intValue ());
@@ -1276,9 +2573,12 @@ public abstract class DB implements AutoCloseable, ParamSetter {
         
         JsonArrayBuilder ab = Json.createArrayBuilder ();
         
-        ResultSetMetaData md = rs.getMetaData ();
+        RowReader reader = null;
         
-        while (rs.next ()) ab.add (getJsonObjectBuilder (rs, md));
+        while (rs.next ()) {
+            if (reader == null) reader = getRowReader (rs);
+            ab.add (getJsonObjectBuilder (rs, reader));
+        }
         
         return ab.build ();
         
@@ -1321,6 +2621,9 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      * Если требуется добавить несколько выборок из одной таблицы, в запросах 
      * следует прописать разные псевдонимы.
      * 
+     * Запросы исполняются по очереди. Для параллельного исполнения 
+     * на разных соединениях см. AsyncDB.addJsonArrays.
+     * 
      * @param jb куда добавлять выборки
      * @param ss запросы
      * @return jb
@@ -1338,20 +2641,77 @@ public abstract class DB implements AutoCloseable, ParamSetter {
      * Формирование JSON для таблицы с листанием. В заданный объект добавляются 2 поля:
      * 1) с названием, как псевдоним главной таблицы запроса и значением - списком выбранных записей;
      * 2) с названием "cnt" и значением COUNT(*) без LIMIT.
+     * Оба значения получаются одним запросом, как в getPage.
      * @param jb куда добавить поля
      * @param s запрос с установленным limit
      * @return jb
      * @throws SQLException
      */
     public final JsonObjectBuilder addJsonArrayCnt (JsonObjectBuilder jb, Select s) throws SQLException {
+        
+        JsonArrayBuilder ab = Json.createArrayBuilder ();
+        
+        final int cnt = forPage (s, (rs, reader) -> {ab.add (getJsonObjectBuilder (rs, reader));});
                 
-        jb.add (s.getTableAlias (), getJsonArray (s));
-        jb.add ("cnt", getCnt (s));
+        jb.add (s.getTableAlias (), ab.build ());
+        jb.add ("cnt", cnt);
         
         return jb;
         
     }     
     
+    /**
+     * Выборка страницы листаемого списка вместе с общим числом записей 
+     * за одно исполнение запроса: к выборке добавляется COUNT(*) OVER () 
+     * (см. Select.withCnt), а отдельный COUNT(*) исполняется только тогда, 
+     * когда страница за пределами выборки оказалась пустой.
+     * @param s запрос с установленным limit
+     * @return записи, полученные как HASH, и COUNT(*) без учёта limit
+     * @throws SQLException
+     */
+    public final Page getPage (Select s) throws SQLException {
+        
+        List <Map <String, Object>> rows = new ArrayList<> ();
+        
+        final int cnt = forPage (s, (rs, reader) -> {rows.add (reader.toMap (rs));});
+        
+        return new Page (rows, cnt);
+        
+    }
+    
+    private int forPage (Select s, JDBCBiConsumer<ResultSet, RowReader> each) throws SQLException {
+        
+        final boolean withCnt = s.isWithCnt ();
+        
+        final QP qp;
+        
+        try {
+            qp = toQP (s.withCnt (true));
+        }
+        finally {
+            s.withCnt (withCnt);
+        }
+        
+        int [] cnt = new int [] {-1};
+        RowReader [] readers = new RowReader [] {null};
+        
+        forEach (qp, rs -> {
+            
+            if (readers [0] == null) {
+                readers [0] = getRowReader (rs).without (Select.CNT);
+                cnt [0] = rs.getInt (Select.CNT);
+            }
+            
+            each.accept (rs, readers [0]);
+            
+        });
+        
+        if (cnt [0] >= 0) return cnt [0];
+        
+        return s.getOffset () == 0 ? 0 : getCnt (s);
+        
+    }
+    
     /**
      * Извлечение выборки по запросу в виде индекса: ключ-запись
      * @param rs выборка
@@ -1454,6 +2814,150 @@ public abstract class DB implements AutoCloseable, ParamSetter {
         return getIdx (s, null);
         
     }
+    
+    private static String toKey (Select s, String key) {
+        return key != null ? key : s.getTable ().getPk ().get (0).getName ();
+    }
+
+    /**
+     * Извлечение выборки в виде индекса по целочисленному ключу, без упаковки ключей в Long.
+     * Записи с NULL в ключевом поле пропускаются.
+     * @param qp запрос
+     * @param key имя ключевого поля
+     * @return индекс, где значениям ключевого поля соответствуют записи, полученные как HASH
+     * @throws SQLException
+     */
+    public final LongIndex<Map<String, Object>> getLongIdx (QP qp, String key) throws SQLException {
+        
+        LongIndex<Map<String, Object>> result = new LongIndex<> ();
+        
+        scan (qp, row -> {
+            final long k = row.getLong (key);
+            if (!row.wasNull ()) result.put (k, row.toMap ());
+        });
+        
+        return result;
+        
+    }
+    
+    /**
+     * Извлечение выборки в виде индекса по целочисленному ключу. См. getLongIdx (QP, String).
+     * @param s запрос
+     * @param key имя ключевого поля (если null — используется имя 1-го поля PK главной таблицы запроса)
+     * @return индекс ключ-запись
+     * @throws SQLException
+     */
+    public final LongIndex<Map<String, Object>> getLongIdx (Select s, String key) throws SQLException {
+        return getLongIdx (toQP (s), toKey (s, key));
+    }
+    
+    public final LongIndex<Map<String, Object>> getLongIdx (Select s) throws SQLException {
+        return getLongIdx (s, null);
+    }
+    
+    /**
+     * Извлечение выборки в виде индекса по ключу-UUID (хранимому как 16 байт), 
+     * без построения объектов UUID. Записи с NULL в ключевом поле пропускаются.
+     * @param qp запрос
+     * @param key имя ключевого поля
+     * @return индекс, где значениям ключевого поля соответствуют записи, полученные как HASH
+     * @throws SQLException
+     */
+    public final UuidIndex<Map<String, Object>> getUuidIdx (QP qp, String key) throws SQLException {
+        
+        UuidIndex<Map<String, Object>> result = new UuidIndex<> ();
+        
+        scan (qp, row -> {
+            final byte [] b = row.getRs ().getBytes (row.indexOf (key));
+            if (b != null) result.put (UuidIndex.getMsb (b), UuidIndex.getLsb (b), row.toMap ());
+        });
+        
+        return result;
+        
+    }
+    
+    /**
+     * Извлечение выборки в виде индекса по ключу-UUID. См. getUuidIdx (QP, String).
+     * @param s запрос
+     * @param key имя ключевого поля (если null — используется имя 1-го поля PK главной таблицы запроса)
+     * @return индекс ключ-запись
+     * @throws SQLException
+     */
+    public final UuidIndex<Map<String, Object>> getUuidIdx (Select s, String key) throws SQLException {
+        return getUuidIdx (toQP (s), toKey (s, key));
+    }
+    
+    public final UuidIndex<Map<String, Object>> getUuidIdx (Select s) throws SQLException {
+        return getUuidIdx (s, null);
+    }
+    
+    /**
+     * Группировка записей выборки по неуникальному целочисленному ключу.
+     * Записи с NULL в ключевом поле пропускаются.
+     * @param qp запрос
+     * @param key имя ключевого поля
+     * @return индекс, где значениям ключа соответствуют списки записей в порядке выборки
+     * @throws SQLException
+     */
+    public final LongIndex<List<Map<String, Object>>> getGroupIdx (QP qp, String key) throws SQLException {
+        
+        LongIndex<List<Map<String, Object>>> result = new LongIndex<> ();
+        
+        scan (qp, row -> {
+            final long k = row.getLong (key);
+            if (!row.wasNull ()) result.computeIfAbsent (k, i -> new ArrayList<> (2)).add (row.toMap ());
+        });
+        
+        for (List<Map<String, Object>> i: result.values ()) ((ArrayList) i).trimToSize ();
+        
+        return result;
+        
+    }
+    
+    /**
+     * Группировка записей выборки по неуникальному целочисленному ключу. См. getGroupIdx (QP, String).
+     * @param s запрос
+     * @param key имя ключевого поля
+     * @return индекс ключ-список записей
+     * @throws SQLException
+     */
+    public final LongIndex<List<Map<String, Object>>> getGroupIdx (Select s, String key) throws SQLException {
+        return getGroupIdx (toQP (s), key);
+    }
+    
+    /**
+     * Группировка записей выборки по неуникальному ключу-UUID (хранимому как 16 байт).
+     * Записи с NULL в ключевом поле пропускаются.
+     * @param qp запрос
+     * @param key имя ключевого поля
+     * @return индекс, где значениям ключа соответствуют списки записей в порядке выборки
+     * @throws SQLException
+     */
+    public final UuidIndex<List<Map<String, Object>>> getUuidGroupIdx (QP qp, String key) throws SQLException {
+        
+        UuidIndex<List<Map<String, Object>>> result = new UuidIndex<> ();
+        
+        scan (qp, row -> {
+            final byte [] b = row.getRs ().getBytes (row.indexOf (key));
+            if (b != null) result.computeIfAbsent (UuidIndex.getMsb (b), UuidIndex.getLsb (b), i -> new ArrayList<> (2)).add (row.toMap ());
+        });
+        
+        for (List<Map<String, Object>> i: result.values ()) ((ArrayList) i).trimToSize ();
+        
+        return result;
+        
+    }
+    
+    /**
+     * Группировка записей выборки по неуникальному ключу-UUID. См. getUuidGroupIdx (QP, String).
+     * @param s запрос
+     * @param key имя ключевого поля
+     * @return индекс ключ-список записей
+     * @throws SQLException
+     */
+    public final UuidIndex<List<Map<String, Object>>> getUuidGroupIdx (Select s, String key) throws SQLException {
+        return getUuidGroupIdx (toQP (s), key);
+    }
 
     public abstract QP toQP (Select s);
     protected abstract QP toCntQP (Select s);
@@ -1500,6 +3004,7 @@ public abstract class DB implements AutoCloseable, ParamSetter {
     protected abstract void genUpdateSql (TableSQLBuilder b);
     protected abstract SQLBuilder genUpsertSql (Table t, Table records, String[] key);
     protected abstract SQLBuilder genTruncateSql (Table t);
+    protected abstract QP genNextValuesSql (Sequence seq, int n);
     
     /**
      * Пародия на java.sql.ResultSet, реализующая некоторые методы, 
@@ -1824,9 +3329,55 @@ public abstract class DB implements AutoCloseable, ParamSetter {
     }
     
     public abstract QP toLimitedQP (QP qp, int offset, Integer limit);
+    
+    /**
+     * Приписывание к SQL условия " IN(...)" для заданного списка значений. 
+     * Диалект сам выбирает способ передачи списка в зависимости от его длины.
+     * @param qp буфер, в конце которого уже стоит проверяемое выражение
+     * @param col описание поля, к которому относится условие
+     * @param values значения (не пустой список)
+     */
+    public abstract void appendIn (QP qp, PhysicalCol col, Object [] values);
+    
+    /**
+     * Способен ли драйвер выдать через getGeneratedKeys () ключи всех записей, 
+     * добавленных одним пакетом (executeBatch). Если нет, insertIds добавляет 
+     * записи по одной.
+     * @return true, если insertIds может обойтись одним пакетом
+     */
+    protected abstract boolean isBatchGeneratedKeysSupported ();
     public abstract PhysicalCol toPhysical (Col col);
     public abstract void adjustTable (Table t);
     public abstract TypeAction getTypeAction (JDBCType asIs, JDBCType toBe);
     public abstract boolean equalDef (PhysicalCol asIs, PhysicalCol toBe);
+    
+    /**
+     * План последнего запроса, исполненного через данное соединение.
+     * 
+     * Вызывать надо сразу после интересующего запроса (например, из QueryListener), 
+     * не исполняя ничего в промежутке. Сам метод события QueryEvent не порождает.
+     * 
+     * @return текст плана либо null, если СУБД его не предоставляет (или нет прав)
+     */
+    public abstract String getLastPlan ();
+    
+    /**
+     * Метка текущего согласованного состояния БД (для Oracle -- SCN), 
+     * по которой другие соединения могут читать данные на тот же момент (см. setSnapshot).
+     * @return метка
+     * @throws SQLException
+     * @throws UnsupportedOperationException, если СУБД этого не поддерживает
+     */
+    public abstract Object getSnapshot () throws SQLException;
+    
+    /**
+     * Переключение данного соединения на чтение данных по состоянию на момент, 
+     * полученный от getSnapshot (), возможно, в другом соединении. 
+     * В этом режиме допустимы только запросы на чтение.
+     * @param snapshot метка; null -- вернуться к текущему состоянию
+     * @throws SQLException
+     * @throws UnsupportedOperationException, если СУБД этого не поддерживает
+     */
+    public abstract void setSnapshot (Object snapshot) throws SQLException;
 
 }
\ No newline at end of file
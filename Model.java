@@ -21,6 +21,12 @@ import ru.eludia.base.model.Table;
 import static ru.eludia.base.DB.DB;
 import ru.eludia.base.db.sql.gen.Get;
 import ru.eludia.base.db.sql.gen.Select;
+import ru.eludia.base.db.monitor.LoggingQueryListener;
+import ru.eludia.base.db.monitor.QueryListener;
+import ru.eludia.base.db.monitor.QueryListeners;
+import ru.eludia.base.db.monitor.QueryMetrics;
+import ru.eludia.base.db.replica.Replica;
+import ru.eludia.base.db.util.StatementCache;
 
 /**
  * Описание модели данных приложения: справочник описаний таблиц.
@@ -34,8 +40,106 @@ public class Model extends AbstractModel<Col, Key, Table> {
     
     private static final String DEFAULT_ORDER_FIELD = "label";
     
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+    
     DataSource ds;
     
+    int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+    
+    StatementCache.Stats statementCacheStats = new StatementCache.Stats ();
+    
+    QueryMetrics queryMetrics = new QueryMetrics ();
+    
+    AsyncDB async;
+    
+    Replica replica;
+    
+    QueryListeners queryListeners = new QueryListeners (new LoggingQueryListener (), queryMetrics);
+    
+    /**
+     * Максимальное число подготовленных запросов, хранимых открытыми 
+     * в каждом экземпляре DB до его закрытия.
+     * @return размер кэша запросов; 0 означает, что кэш отключён
+     */
+    public final int getStatementCacheSize () {
+        return statementCacheSize;
+    }
+
+    /**
+     * Установка размера кэша подготовленных запросов. 
+     * Действует для экземпляров DB, выданных после вызова.
+     * @param statementCacheSize максимальное число запросов на соединение; 0 отключает кэш
+     */
+    public final void setStatementCacheSize (int statementCacheSize) {
+        if (statementCacheSize < 0) throw new IllegalArgumentException ("Illegal statementCacheSize value: " + statementCacheSize);
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Счётчики попаданий/промахов/вытеснений кэшей запросов по всем соединениям модели
+     * @return накопленная статистика
+     */
+    public final StatementCache.Stats getStatementCacheStats () {
+        return statementCacheStats;
+    }
+    
+    /**
+     * Получатели сведений о запросах, исполняемых через все соединения модели.
+     * По умолчанию здесь зарегистрированы LoggingQueryListener и QueryMetrics.
+     * @return список получателей
+     */
+    public final QueryListeners getQueryListeners () {
+        return queryListeners;
+    }
+    
+    /**
+     * Статистика запросов по всем соединениям модели: гистограммы 
+     * длительностей по фазам для каждого отпечатка SQL.
+     * 
+     * Чтобы отключить её сбор, достаточно removeQueryListener (getQueryMetrics ()).
+     * 
+     * @return накопитель статистики
+     */
+    public final QueryMetrics getQueryMetrics () {
+        return queryMetrics;
+    }
+    
+    /**
+     * Регистрация получателя сведений о запросах по всем соединениям модели
+     * @param l получатель
+     */
+    public final void addQueryListener (QueryListener l) {
+        queryListeners.add (l);
+    }
+    
+    /**
+     * Отмена регистрации получателя сведений о запросах
+     * @param l ранее зарегистрированный получатель
+     */
+    public final void removeQueryListener (QueryListener l) {
+        queryListeners.remove (l);
+    }
+    
+    /**
+     * Асинхронный доступ к БД: запросы, исполняемые в отдельных потоках
+     * на отдельных соединениях, с результатами в виде CompletableFuture.
+     * @return единственный на модель экземпляр AsyncDB
+     */
+    public final synchronized AsyncDB async () {
+        if (async == null) async = new AsyncDB (this);
+        return async;
+    }
+    
+    /**
+     * Реплика справочных таблиц в памяти. Изначально пуста: 
+     * таблицы регистрируются и загружаются явно (см. Replica).
+     * @return единственный на модель экземпляр Replica
+     */
+    public final synchronized Replica replica () {
+        if (replica == null) replica = new Replica (this);
+        return replica;
+    }
+    
     /**
      * Выдача эксемпляра DB: основного класса для работы с БД.
      * @return нетонкая обёртка над java.sql.Connection
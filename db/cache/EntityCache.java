@@ -0,0 +1,343 @@
+package ru.eludia.base.db.cache;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import ru.eludia.base.db.util.JDBCFunction;
+
+/**
+ * Кэш записей одной таблицы по первичному ключу (см. Table.cache, DB.getMap (Table, Object)).
+ * 
+ * Размер ограничен maxSize записей, время жизни каждой -- ttl. Кэшируются 
+ * и отрицательные результаты (записи нет), если это не отключено.
+ * 
+ * Вытеснение -- по схеме W-TinyLFU: новые записи попадают в небольшое 
+ * LRU-окно (около 1% объёма), а вытесняемая из окна запись допускается 
+ * в основную LRU-область, только если по приблизительному счётчику 
+ * частоты обращений (count-min sketch с периодическим старением) 
+ * она популярнее той, что пришлось бы ради неё вытеснить. Так разовые 
+ * обращения к редким записям не вымывают из кэша популярные.
+ * 
+ * Записи, изменяемые через DB, удаляются из кэша автоматически. Изменения, 
+ * внесённые в обход DB (d0, хранимые процедуры, другие приложения), 
+ * видны только по истечении ttl.
+ */
+public final class EntityCache {
+    
+    private static final int WINDOW_PERCENT = 1;
+    
+    final String name;
+    final int maxSize;
+    final long ttl;
+    final boolean negative;
+    
+    final int windowSize;
+    final int mainSize;
+    
+    final LinkedHashMap<Object, Entry> window = new LinkedHashMap<> (16, 0.75f, true);
+    final LinkedHashMap<Object, Entry> main = new LinkedHashMap<> (16, 0.75f, true);
+    final FrequencySketch sketch;
+    
+    long generation = 0L;
+    
+    final LongAdder hits          = new LongAdder ();
+    final LongAdder negativeHits  = new LongAdder ();
+    final LongAdder misses        = new LongAdder ();
+    final LongAdder evictions     = new LongAdder ();
+    final LongAdder invalidations = new LongAdder ();
+    
+    private static final class Entry {
+        
+        final Map<String, Object> value;
+        final long expires;
+
+        Entry (Map<String, Object> value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+        
+    }
+
+    /**
+     * Конструктор
+     * @param name имя (для журнала и статистики), обычно -- имя таблицы
+     * @param maxSize максимальное число записей
+     * @param ttl время жизни записи
+     * @param unit единица измерения ttl
+     * @param negative true, если надо запоминать и отсутствие записей
+     */
+    public EntityCache (String name, int maxSize, long ttl, TimeUnit unit, boolean negative) {
+        if (maxSize < 1) throw new IllegalArgumentException ("Illegal maxSize value: " + maxSize);
+        if (ttl <= 0) throw new IllegalArgumentException ("Illegal ttl value: " + ttl);
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttl = unit.toNanos (ttl);
+        this.negative = negative;
+        this.windowSize = Math.max (1, maxSize * WINDOW_PERCENT / 100);
+        this.mainSize = Math.max (1, maxSize - windowSize);
+        this.sketch = new FrequencySketch (maxSize);
+    }
+    
+    /**
+     * Приведение значения первичного ключа к виду, не зависящему 
+     * от его java-класса (1, 1L и 1.0 -- один и тот же ключ)
+     * @param id значение первичного ключа
+     * @return ключ кэша
+     */
+    public static Object toKey (Object id) {
+        
+        if (id instanceof Number) {
+            try {
+                return new BigDecimal (id.toString ()).stripTrailingZeros ().toPlainString ();
+            }
+            catch (NumberFormatException ex) {
+                return id.toString ();
+            }
+        }
+        
+        return id.toString ();
+        
+    }
+    
+    private static Map<String, Object> copy (Map<String, Object> v) {
+        return v == null ? null : new LinkedHashMap<> (v);
+    }
+    
+    /**
+     * Запись по первичному ключу: из кэша либо, при промахе, через loader
+     * @param id значение первичного ключа (не null)
+     * @param loader загрузка записи из БД; выдаёт null, если её нет
+     * @return копия записи (её можно менять) либо null
+     * @throws SQLException
+     */
+    public Map<String, Object> get (Object id, JDBCFunction<Object, Map<String, Object>> loader) throws SQLException {
+        
+        final Object key = toKey (id);
+        
+        final long gen;
+        
+        synchronized (this) {
+            
+            sketch.increment (key);
+            
+            Entry e = window.get (key);
+            
+            if (e == null) e = main.get (key);
+            
+            if (e != null && e.expires - System.nanoTime () > 0L) {
+                hits.increment ();
+                if (e.value == null) negativeHits.increment ();
+                return copy (e.value);
+            }
+            
+            if (e != null) remove (key);
+            
+            misses.increment ();
+            
+            gen = generation;
+            
+        }
+        
+        final Map<String, Object> value = loader.apply (id);
+        
+        if (value != null || negative) put (key, copy (value), gen);
+        
+        return copy (value);
+        
+    }
+    
+    private synchronized void put (Object key, Map<String, Object> value, long gen) {
+        
+        if (gen != generation) return;
+        
+        remove (key);
+        
+        window.put (key, new Entry (value, System.nanoTime () + ttl));
+        
+        if (window.size () <= windowSize) return;
+        
+        final Iterator<Map.Entry<Object, Entry>> w = window.entrySet ().iterator ();
+        final Map.Entry<Object, Entry> candidate = w.next ();
+        w.remove ();
+        
+        if (main.size () < mainSize) {
+            main.put (candidate.getKey (), candidate.getValue ());
+            return;
+        }
+        
+        final Iterator<Map.Entry<Object, Entry>> m = main.entrySet ().iterator ();
+        final Map.Entry<Object, Entry> victim = m.next ();
+        
+        evictions.increment ();
+        
+        if (sketch.frequency (candidate.getKey ()) <= sketch.frequency (victim.getKey ())) return;
+        
+        m.remove ();
+        
+        main.put (candidate.getKey (), candidate.getValue ());
+        
+    }
+    
+    private void remove (Object key) {
+        if (window.remove (key) == null) main.remove (key);
+    }
+    
+    /**
+     * Удаление записи из кэша (после её изменения)
+     * @param id значение первичного ключа
+     */
+    public synchronized void invalidate (Object id) {
+        generation ++;
+        invalidations.increment ();
+        if (id != null) remove (toKey (id));
+    }
+    
+    /**
+     * Удаление запомненных отрицательных результатов (после добавления 
+     * записей с неизвестными заранее ключами)
+     */
+    public synchronized void invalidateMissing () {
+        generation ++;
+        invalidations.increment ();
+        window.values ().removeIf (e -> e.value == null);
+        main.values ().removeIf (e -> e.value == null);
+    }
+    
+    /**
+     * Очистка кэша (после изменения неизвестного набора записей)
+     */
+    public synchronized void invalidateAll () {
+        generation ++;
+        invalidations.increment ();
+        window.clear ();
+        main.clear ();
+    }
+
+    /**
+     * @return имя кэша
+     */
+    public String getName () {
+        return name;
+    }
+
+    /**
+     * @return максимальное число записей
+     */
+    public int getMaxSize () {
+        return maxSize;
+    }
+
+    /**
+     * @return текущее число записей (включая устаревшие, но ещё не удалённые)
+     */
+    public synchronized int size () {
+        return window.size () + main.size ();
+    }
+    
+    /**
+     * @return число обращений, обслуженных кэшем (включая отрицательные результаты)
+     */
+    public long getHits () {
+        return hits.sum ();
+    }
+    
+    /**
+     * @return число обращений, обслуженных кэшем, с отрицательным результатом
+     */
+    public long getNegativeHits () {
+        return negativeHits.sum ();
+    }
+
+    /**
+     * @return число обращений к БД
+     */
+    public long getMisses () {
+        return misses.sum ();
+    }
+
+    /**
+     * @return число записей, вытесненных либо не допущенных в основную область
+     */
+    public long getEvictions () {
+        return evictions.sum ();
+    }
+
+    /**
+     * @return число вызовов invalidate*
+     */
+    public long getInvalidations () {
+        return invalidations.sum ();
+    }
+    
+    /**
+     * @return доля обращений, обслуженных кэшем, от 0 до 1
+     */
+    public double getHitRatio () {
+        long h = getHits ();
+        long total = h + getMisses ();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    @Override
+    public String toString () {
+        return "{name: " + name + ", size: " + size () + ", maxSize: " + maxSize + ", hits: " + getHits () + ", negativeHits: " + getNegativeHits () + ", misses: " + getMisses () + ", evictions: " + getEvictions () + ", invalidations: " + getInvalidations () + "}";
+    }
+    
+    /**
+     * Приблизительные частоты обращений: count-min sketch из 4 строк 
+     * по 4 * maxSize (с округлением до степени двойки) счётчиков до 15, которые все вдвое уменьшаются после 
+     * каждых 10 * maxSize обращений, так что старая популярность забывается.
+     */
+    static final class FrequencySketch {
+        
+        private static final int [] SEEDS = {0x97cb3127, 0xb492b66f, 0x9ae16a3b, 0xc3a5c85c};
+        private static final int MAX_COUNT = 15;
+        
+        final byte [][] rows = new byte [SEEDS.length] [];
+        final int mask;
+        final int sampleSize;
+        int additions = 0;
+
+        FrequencySketch (int maxSize) {
+            int width = Integer.highestOneBit (Math.max (16, Math.min (maxSize, 1 << 22)) - 1) << 3;
+            for (int i = 0; i < rows.length; i ++) rows [i] = new byte [width];
+            mask = width - 1;
+            sampleSize = 10 * Math.max (16, maxSize);
+        }
+        
+        private int index (Object key, int i) {
+            int h = key.hashCode () * SEEDS [i];
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            return h & mask;
+        }
+        
+        void increment (Object key) {
+            
+            for (int i = 0; i < rows.length; i ++) {
+                final int j = index (key, i);
+                if (rows [i] [j] < MAX_COUNT) rows [i] [j] ++;
+            }
+            
+            if (++ additions < sampleSize) return;
+            
+            additions = 0;
+            
+            for (byte [] row: rows) for (int j = 0; j < row.length; j ++) row [j] >>= 1;
+            
+        }
+        
+        int frequency (Object key) {
+            int f = MAX_COUNT;
+            for (int i = 0; i < rows.length; i ++) f = Math.min (f, rows [i] [index (key, i)]);
+            return f;
+        }
+        
+    }
+    
+}
@@ -2,6 +2,7 @@ package ru.eludia.base.db.dialect;
 
 import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.JDBCType;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
@@ -41,11 +42,13 @@ import ru.eludia.base.model.phys.PhysicalModel;
 import ru.eludia.base.model.phys.PhysicalTable;
 import ru.eludia.base.db.sql.gen.Filter;
 import ru.eludia.base.db.sql.gen.Join;
+import ru.eludia.base.db.sql.gen.OrderTerm;
 import ru.eludia.base.db.sql.gen.Part;
 import ru.eludia.base.db.sql.gen.Predicate;
 import ru.eludia.base.db.sql.gen.ResultCol;
 import ru.eludia.base.db.sql.gen.Select;
 import ru.eludia.base.model.Procedure;
+import ru.eludia.base.model.Sequence;
 import ru.eludia.base.model.phys.PhysicalView;
 
 public abstract class ANSI extends DB {
@@ -99,6 +102,10 @@ public abstract class ANSI extends DB {
                 break;
 
             case VARBINARY: 
+                if (value instanceof byte []) {
+                    st.setBytes (n, (byte []) value);
+                    break;
+                }
                 String vb = toVarbinary (value);
                 st.setString (n, vb);
                 break;
@@ -107,6 +114,10 @@ public abstract class ANSI extends DB {
                 st.setBinaryStream (n, to.binaryStream (value));
                 break;
                 
+            case ARRAY: 
+                st.setArray (n, (java.sql.Array) value);
+                break;
+                
             default: 
 
                 String s = value.toString ();
@@ -329,6 +340,15 @@ public abstract class ANSI extends DB {
         qp.setLastChar (' ');        
     }
     
+    void addSelectCnt (QP qp) {
+        qp.setLastChar (',');
+        qp.append ("COUNT(*) OVER () ");
+        quoteOpen (qp);
+        qp.append (Select.CNT);
+        quoteClose (qp);
+        qp.append (' ');
+    }
+    
     void addSelectFilter (QP qp, Part part, Filter f) {
         
         Filter nextFilter = f.getNextFilter ();
@@ -401,9 +421,64 @@ public abstract class ANSI extends DB {
     } 
     
     void addSelectWhere (Select select, QP qp) {
-        if (!select.hasFilters ()) return;
+        final boolean seek = select.getAfter () != null;
+        if (!select.hasFilters () && !seek) return;
         qp.append (" WHERE ");
         addSelectFilters (qp, select);
+        if (!seek) return;
+        if (select.hasFilters ()) qp.append (" AND ");
+        addSelectSeek (select, qp);
+    }
+    
+    void addSelectSeekTerm (QP qp, OrderTerm t) {
+        qp.append (t.getPart ().getTableAlias ());
+        qp.append ('.');
+        qp.append (t.getColumn ().getName ());
+    }
+    
+    /**
+     * Условие листания по ключу: для ORDER BY a, b, c это 
+     * a>=? AND (a>? OR (a=? AND b>?) OR (a=? AND b=? AND c>?)).
+     * Сравнение кортежей (a,b,c)>(?,?,?) не годится: оно поддерживается 
+     * не всеми СУБД и не учитывает смешанных ASC/DESC.
+     * @param select запрос с установленным after
+     * @param qp куда дописывать
+     */
+    void addSelectSeek (Select select, QP qp) {
+        
+        final Map<String, Object> after = select.getAfter ();
+        
+        final List<OrderTerm> terms = select.getKeyset ();
+        
+        final OrderTerm first = terms.get (0);
+        
+        if (terms.size () > 1) {
+            addSelectSeekTerm (qp, first);
+            qp.add (first.isDesc () ? "<=?" : ">=?", after.get (first.getKey ()), first.getColumn ().toPhysical ());
+            qp.append (" AND ");
+        }
+        
+        qp.append ('(');
+        
+        for (int i = 0; i < terms.size (); i ++) {
+            
+            if (i > 0) qp.append (" OR ");
+            
+            qp.append ('(');
+            
+            for (int j = 0; j <= i; j ++) {
+                final OrderTerm t = terms.get (j);
+                if (j > 0) qp.append (" AND ");
+                addSelectSeekTerm (qp, t);
+                qp.add (j < i ? "=?" : t.isDesc () ? "<?" : ">?", after.get (t.getKey ()), t.getColumn ().toPhysical ());
+            }
+            
+            qp.append (')');
+            
+        }
+        
+        qp.append (')');
+        
     }
     
     void addSelectOrder (Select select, QP qp) {
@@ -469,14 +544,130 @@ public abstract class ANSI extends DB {
     public QP toQP (Select select) {        
         QP qp = createSelectQP ();
         addSelectColumns (select, qp);
+        if (select.isWithCnt ()) addSelectCnt (qp);
         addSelectFrom    (select, qp);
         addSelectJoins   (select, qp);
         addSelectWhere   (select, qp);
         addSelectOrder   (select, qp);
         if (select.getLimit () != null) qp = toLimitedQP (qp, select.getOffset (), select.getLimit ());
+        qp.setFetchSize (getFetchSize (select));
         return qp;
     }
     
+    private static final int FETCH_BUFFER_SIZE = 512 * 1024;
+    private static final int MIN_FETCH_SIZE = 10;
+    private static final int MAX_FETCH_SIZE = 1000;
+    
+    /**
+     * Оценка объёма буфера, резервируемого драйвером на одно значение поля при выборке
+     * @param col поле
+     * @return число байт
+     */
+    protected int getFetchWidth (PhysicalCol col) {
+        
+        switch (col.getType ()) {
+            case CHAR:
+            case NCHAR:
+            case VARCHAR:
+            case NVARCHAR:
+                return 2 * Math.max (1, col.getLength ());
+            case BINARY:
+            case VARBINARY:
+                return Math.max (1, col.getLength ());
+            case CLOB:
+            case NCLOB:
+            case BLOB:
+                return 4000;
+            default:
+                return 22;
+        }
+        
+    }
+    
+    private long getFetchWidth (ResultCol [] cols) {
+        long width = 0L;
+        for (ResultCol c: cols) width += getFetchWidth (c.getCol ());
+        return width;
+    }
+    
+    /**
+     * Размер порции выборки: явно заданный либо такой, чтобы буфер драйвера 
+     * занимал порядка FETCH_BUFFER_SIZE байт, но не больше, чем нужно для limit.
+     * @param select запрос
+     * @return число записей
+     */
+    protected int getFetchSize (Select select) {
+        
+        final Integer explicit = select.getFetchSize ();
+        
+        if (explicit != null) return explicit;
+        
+        long width = getFetchWidth (select.getColumns ());
+        
+        for (Join j: select.getJoins ()) width += getFetchWidth (j.getColumns ());
+        
+        int n = width == 0L ? MAX_FETCH_SIZE : (int) Math.max (MIN_FETCH_SIZE, Math.min (MAX_FETCH_SIZE, FETCH_BUFFER_SIZE / width));
+        
+        final Integer limit = select.getLimit ();
+        
+        if (limit != null && limit < n) n = Math.max (1, limit);
+        
+        return n;
+        
+    }
+    
+    /**
+     * Максимальная длина списка IN(?,...), после которой 
+     * размер при дополнении до степени двойки не растёт
+     */
+    protected static final int MAX_IN_LIST_SIZE = 1000;
+    
+    /**
+     * Список " IN(?,?,...)", дополненный повтором последнего значения 
+     * до ближайшей степени двойки (либо до MAX_IN_LIST_SIZE), так что 
+     * списки разной длины дают лишь несколько различных текстов SQL 
+     * и не засоряют кэши разобранных запросов.
+     * @param qp буфер
+     * @param col описание поля
+     * @param values значения
+     */
+    @Override
+    public void appendIn (QP qp, PhysicalCol col, Object [] values) {
+        
+        final int n = values.length;
+        
+        int size = 1;
+        
+        while (size < n) size <<= 1;
+        
+        if (size > MAX_IN_LIST_SIZE && n <= MAX_IN_LIST_SIZE) size = MAX_IN_LIST_SIZE;
+        
+        final Object last = values [n - 1];
+        
+        qp.append (" IN(");
+        
+        for (int i = 0; i < size; i ++) qp.add ("?,", i < n ? values [i] : last, col);
+        
+        qp.setLastChar (')');
+        
+    }
+    
+    /**
+     * Поддержка пакетного getGeneratedKeys по сведениям драйвера
+     * @return true, если драйвер поддерживает и пакеты, и getGeneratedKeys
+     */
+    @Override
+    protected boolean isBatchGeneratedKeysSupported () {
+        try {
+            final DatabaseMetaData md = cn.getMetaData ();
+            return md.supportsBatchUpdates () && md.supportsGetGeneratedKeys ();
+        }
+        catch (SQLException ex) {
+            logger.log (Level.WARNING, "Can't get driver capabilities", ex);
+            return false;
+        }
+    }
+    
     @Override
     public QP toCntQP (Select select) {        
         QP qp = createSelectQP ();
@@ -508,6 +699,11 @@ public abstract class ANSI extends DB {
         
     }
     
+    @Override
+    public String getLastPlan () {
+        return null;
+    }
+    
     public boolean equalDef (PhysicalCol asIs, PhysicalCol toBe) {
         
         String a = asIs.getDef ();
@@ -930,6 +1126,8 @@ public abstract class ANSI extends DB {
         
         for (Table t: tables) updateData (t);        
         
+        for (Table t: tables) if (t.getSequence () != null) update (t, t.getSequence ());
+        
         updateViews (ex, views);        
         
         for (Ref ref: newRefs) create (ref);
@@ -1032,5 +1230,6 @@ public abstract class ANSI extends DB {
     protected abstract void update (Table table, Trigger trg) throws SQLException;
     protected abstract void addIndexes (PhysicalModel m) throws SQLException;
     protected abstract void update (Procedure p) throws SQLException;
+    protected abstract void update (Table table, Sequence seq) throws SQLException;
     
 }
\ No newline at end of file
@@ -1,14 +1,17 @@
 package ru.eludia.base.db.dialect;
 
+import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.JDBCType;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -23,6 +26,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import ru.eludia.base.DB;
 import ru.eludia.base.db.sql.build.QP;
+import ru.eludia.base.db.util.ColumnReader;
 import ru.eludia.base.db.sql.build.TableSQLBuilder;
 import ru.eludia.base.model.abs.AbstractCol;
 import ru.eludia.base.model.Col;
@@ -43,6 +47,7 @@ import ru.eludia.base.model.diff.TypeAction;
 import ru.eludia.base.model.phys.PhysicalModel;
 import ru.eludia.base.db.sql.build.SQLBuilder;
 import ru.eludia.base.model.Procedure;
+import ru.eludia.base.model.Sequence;
 import static ru.eludia.base.model.def.Blob.EMPTY_BLOB;
 import ru.eludia.base.model.phys.PhysicalView;
 
@@ -64,10 +69,44 @@ public final class Oracle extends ANSI {
     private static final int LEN_MONEY = 15;
     private static final int PRC_MONEY = 2;
     
+    private static final int MIN_OFFSET_FETCH_VERSION = 12;
+    
+    Boolean offsetFetch = null;
+    
     public Oracle (Connection cn, Model model) {
         super (cn, model);
     }
     
+    /**
+     * Поддержка сервером OFFSET ... FETCH (Oracle 12c и выше). 
+     * Версия запрашивается у драйвера при первом вызове.
+     * @return true, если toLimitedQP может обойтись без вложенных подзапросов с rownum
+     */
+    public final boolean isOffsetFetchSupported () {
+        
+        if (offsetFetch != null) return offsetFetch;
+        
+        try {
+            offsetFetch = cn.getMetaData ().getDatabaseMajorVersion () >= MIN_OFFSET_FETCH_VERSION;
+        }
+        catch (SQLException ex) {
+            Logger.getLogger (Oracle.class.getName ()).log (Level.WARNING, "Can't get database version, falling back to rownum", ex);
+            offsetFetch = false;
+        }
+        
+        return offsetFetch;
+        
+    }
+    
+    /**
+     * Драйвер Oracle не выдаёт getGeneratedKeys после executeBatch
+     * @return false
+     */
+    @Override
+    protected final boolean isBatchGeneratedKeysSupported () {
+        return false;
+    }
+    
     @Override
     public final Object getValue (ResultSet rs, int n) throws SQLException {
         
@@ -103,6 +142,82 @@ public final class Oracle extends ANSI {
         
     }
 
+    private static final ColumnReader TIMESTAMP_READER = (rs, n) -> {
+        Timestamp ts = rs.getTimestamp (n);
+        return rs.wasNull () ? null : ts.toString ();
+    };
+    
+    private static final ColumnReader LONG_READER = (rs, n) -> {
+        long l = rs.getLong (n);
+        return rs.wasNull () ? null : (Object) l;
+    };
+    
+    private static final ColumnReader DECIMAL_READER = (rs, n) -> {
+        BigDecimal bd = rs.getBigDecimal (n);
+        return rs.wasNull () ? null : bd;
+    };
+
+    private static final ColumnReader NUMBER_READER = (rs, n) -> {
+        BigDecimal bd = rs.getBigDecimal (n);
+        if (rs.wasNull ()) return null;
+        if (bd.scale () > 0) return bd;
+        if (bd.precision () > 18) return bd;
+        return bd.longValue ();
+    };
+    
+    private static final ColumnReader STRING_READER = (rs, n) -> {
+        String s = rs.getString (n);
+        return rs.wasNull () ? "" : s;
+    };
+    
+    private static final ColumnReader RAW_READER = (rs, n) -> {
+        byte [] b = rs.getBytes (n);
+        return 
+            rs.wasNull ()  ? null : 
+            b.length == 16 ? to.UUID (b) : 
+            to.hex (b);
+    };
+    
+    /**
+     * Процедуры чтения, повторяющие логику getValue, но с учётом метаданных 
+     * один раз на выборку. Для NUMBER(p) с p от 1 до 18 значение читается 
+     * через getLong, без промежуточного BigDecimal.
+     */
+    @Override
+    protected ColumnReader toColumnReader (ResultSetMetaData md, int n) throws SQLException {
+        
+        final int type = md.getColumnType (n);
+        
+        final JDBCType t;
+        
+        try {
+            t = JDBCType.valueOf (type);
+        }
+        catch (IllegalArgumentException ex) {
+            return (rs, i) -> {throw ex;};
+        }
+        
+        switch (t) {
+            case DATE:
+            case TIMESTAMP:
+                return TIMESTAMP_READER;
+            case NUMERIC:
+                final int scale = md.getScale (n);
+                if (scale > 0) return DECIMAL_READER;
+                final int precision = md.getPrecision (n);
+                if (scale == 0 && precision > 0 && precision <= 18) return LONG_READER;
+                return NUMBER_READER;
+            case CLOB:
+            case VARCHAR:
+                return STRING_READER;
+            case VARBINARY:
+                return RAW_READER;
+            default:
+                return (rs, i) -> {throw new IllegalArgumentException ("Not supported: " + t);};
+        }
+        
+    }
+
     @Override
     protected String toVarbinary (Object v) {
         return v.toString ().toUpperCase ().replace ("-", "");
@@ -745,11 +860,343 @@ public final class Oracle extends ANSI {
 
     }
     
+    /**
+     * Создание последовательности, если её ещё нет. Она начинается со 
+     * значения, следующего за максимальным значением первичного ключа, и 
+     * кэширует на сервере порцию того же размера, что запрашивает клиент.
+     * Существующая последовательность не изменяется.
+     * @param table таблица
+     * @param seq последовательность
+     * @throws SQLException
+     */
+    @Override
+    protected void update (Table table, Sequence seq) throws SQLException {
+        
+        final String name = toName (seq);
+        
+        if (getInteger (new QP ("SELECT COUNT(*) FROM user_sequences WHERE sequence_name = ?", name.toUpperCase ())) > 0) return;
+        
+        final String start = getString (new QP ("SELECT NVL(MAX(" + table.getPk ().get (0).getName () + "),0)+1 FROM " + table.getName ()));
+        
+        d0 ("CREATE SEQUENCE " + name + " START WITH " + start + (seq.getBlockSize () > 1 ? " CACHE " + seq.getBlockSize () : " NOCACHE"));
+        
+    }
+
+    @Override
+    protected QP genNextValuesSql (Sequence seq, int n) {
+        return new QP ("SELECT " + toName (seq) + ".NEXTVAL FROM DUAL CONNECT BY LEVEL <= ?", n);
+    }
+    
+    /**
+     * Имя последовательности в БД. Вызывается и во время работы 
+     * (при получении порций значений), поэтому для длинных имён 
+     * берёт отдельный MessageDigest, а не общий md5.
+     */
+    private static String toName (Sequence seq) {
+        
+        final String name = seq.getName ();
+        
+        if (name.length () <= 30) return name;
+        
+        try {
+            return "sq_" + to.hex (MessageDigest.getInstance ("MD5").digest (name.getBytes ())).substring (0, 27);
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException (ex);
+        }
+        
+    }
+    
+    private static final String LAST_PLAN_SQL = "SELECT plan_table_output FROM TABLE(DBMS_XPLAN.DISPLAY_CURSOR(NULL, NULL, 'TYPICAL'))";
+
+    /**
+     * План последнего курсора сессии по DBMS_XPLAN.DISPLAY_CURSOR. 
+     * Требует SELECT на V$SQL_PLAN, V$SQL и V$SESSION; при их отсутствии возвращает null.
+     * @return текст плана либо null
+     */
+    @Override
+    public String getLastPlan () {
+        
+        StringBuilder sb = new StringBuilder ();
+        
+        try (Statement st = cn.createStatement (); ResultSet rs = st.executeQuery (LAST_PLAN_SQL)) {
+            while (rs.next ()) {
+                sb.append (rs.getString (1));
+                sb.append ('\n');
+            }
+        }
+        catch (SQLException ex) {
+            logger.log (Level.FINE, "Cannot get last plan", ex);
+            return null;
+        }
+        
+        return sb.length () == 0 ? null : sb.toString ();
+        
+    }
+    
+    /**
+     * Текущий SCN. Требует права EXECUTE на DBMS_FLASHBACK.
+     * @return SCN (Long)
+     * @throws SQLException
+     */
+    @Override
+    public Object getSnapshot () throws SQLException {
+        
+        Object [] scn = new Object [] {null};
+        
+        forFirst (new QP ("SELECT DBMS_FLASHBACK.GET_SYSTEM_CHANGE_NUMBER FROM DUAL"), rs -> {scn [0] = rs.getLong (1);});
+        
+        return scn [0];
+        
+    }
+
+    /**
+     * Переключение сессии на заданный SCN через DBMS_FLASHBACK.
+     * Перед возвратом соединения в пул режим надо выключить: setSnapshot (null).
+     * @param snapshot SCN либо null
+     * @throws SQLException
+     */
+    @Override
+    public void setSnapshot (Object snapshot) throws SQLException {
+        if (snapshot == null) 
+            d0 ("BEGIN DBMS_FLASHBACK.DISABLE; END;");
+        else
+            d0 ("BEGIN DBMS_FLASHBACK.ENABLE_AT_SYSTEM_CHANGE_NUMBER (?); END;", snapshot);
+    }
+    
     private static final PhysicalCol dummyIntCol = new PhysicalCol (JDBCType.INTEGER, "");
+    private static final PhysicalCol dummyArrayCol = new PhysicalCol (JDBCType.ARRAY, "");
+    
+    /**
+     * Длина списка, начиная с которой IN передаётся одним параметром-коллекцией
+     */
+    private static final int IN_COLLECTION_THRESHOLD = 256;
+    
+    /**
+     * Длина порции для списков, передаваемых через конструктор коллекции
+     */
+    private static final int IN_COLLECTION_CHUNK = 512;
+    
+    /**
+     * Максимальная длина коллекций SYS.ODCI*LIST (VARRAY(32767))
+     */
+    private static final int MAX_COLLECTION_SIZE = 32767;
+    
+    /**
+     * Максимальное число параметров в одном запросе Oracle
+     */
+    private static final int MAX_BIND_VARIABLES = 65535;
+    
+    private static Class<?> oracleConnection = null;
+    private static Method createOracleArray = null;
+    
+    static {
+        try {
+            oracleConnection = Class.forName ("oracle.jdbc.OracleConnection");
+            createOracleArray = oracleConnection.getMethod ("createOracleArray", String.class, Object.class);
+        }
+        catch (ReflectiveOperationException | LinkageError ex) {
+            Logger.getLogger (Oracle.class.getName ()).log (Level.INFO, "No Oracle JDBC driver classes found, collection binding is off");
+        }
+    }
+    
+    /**
+     * Создание коллекции Oracle через драйвер (без compile-time зависимости от него)
+     * @param typeName имя типа коллекции
+     * @param elements элементы
+     * @return коллекция либо null, если драйвер этого не умеет
+     */
+    private Array createArray (String typeName, Object [] elements) {
+        
+        if (createOracleArray == null) return null;
+        
+        try {
+            if (!cn.isWrapperFor (oracleConnection)) return null;
+            return (Array) createOracleArray.invoke (cn.unwrap (oracleConnection), typeName, elements);
+        }
+        catch (SQLException | ReflectiveOperationException | RuntimeException ex) {
+            logger.log (Level.WARNING, "Can't create " + typeName + ", falling back to IN list", ex);
+            return null;
+        }
+        
+    }
+    
+    /**
+     * Условие IN для Oracle. Короткие списки -- как в ANSI (с дополнением 
+     * до степени двойки). Длинные (больше IN_COLLECTION_THRESHOLD) для 
+     * числовых, строковых и RAW-полей передаются одним параметром-коллекцией:
+     * 
+     *     IN(SELECT column_value FROM TABLE(?))
+     * 
+     * так что ограничения в 1000 элементов нет. Коллекция вмещает не более 
+     * MAX_COLLECTION_SIZE элементов, поэтому более длинный список делится 
+     * на несколько коллекций, подзапросы по которым объединяются UNION ALL. 
+     * Если драйвер не позволяет создать коллекцию, список передаётся 
+     * порциями через её конструктор:
+     * 
+     *     IN(SELECT column_value FROM TABLE(SYS.ODCINUMBERLIST(?,...)) UNION ALL ...)
+     * 
+     * -- тогда на каждое значение приходится параметр, и список, при котором 
+     * их в запросе становится больше MAX_BIND_VARIABLES, отвергается 
+     * с IllegalArgumentException.
+     * 
+     * @param qp буфер
+     * @param col описание поля
+     * @param values значения
+     */
+    @Override
+    public void appendIn (QP qp, PhysicalCol col, Object [] values) {
+        
+        if (values.length <= IN_COLLECTION_THRESHOLD) {
+            super.appendIn (qp, col, values);
+            return;
+        }
+        
+        final String typeName;
+        final String element;
+        
+        switch (col.getType ()) {
+            case NUMERIC:
+            case INTEGER:
+                typeName = "SYS.ODCINUMBERLIST";
+                element = "column_value";
+                break;
+            case VARCHAR:
+                typeName = "SYS.ODCIVARCHAR2LIST";
+                element = "column_value";
+                break;
+            case VARBINARY:
+                for (Object v: values) if (v instanceof byte []) {
+                    super.appendIn (qp, col, values);
+                    return;
+                }
+                typeName = "SYS.ODCIVARCHAR2LIST";
+                element = "HEXTORAW(column_value)";
+                break;
+            default:
+                super.appendIn (qp, col, values);
+                return;
+        }
+        
+        final Object [] elements = toCollectionElements (col, values);
+        
+        final List<Array> arrays = new ArrayList<> ();
+        
+        for (int from = 0; from < elements.length; from += MAX_COLLECTION_SIZE) {
+            
+            final Array array = createArray (typeName, Arrays.copyOfRange (elements, from, Math.min (elements.length, from + MAX_COLLECTION_SIZE)));
+            
+            if (array == null) {
+                arrays.clear ();
+                break;
+            }
+            
+            arrays.add (array);
+            
+        }
+        
+        if (!arrays.isEmpty ()) {
+            
+            qp.append (" IN(");
+            
+            for (Array array: arrays) {
+                if (qp.getLastChar () != '(') qp.append (" UNION ALL ");
+                qp.append ("SELECT ");
+                qp.append (element);
+                qp.add (" FROM TABLE(?)", array, dummyArrayCol);
+            }
+            
+            qp.append (')');
+            
+            return;
+            
+        }
+        
+        final int n = values.length;
+        final int size = (n + IN_COLLECTION_CHUNK - 1) / IN_COLLECTION_CHUNK * IN_COLLECTION_CHUNK;
+        
+        if (qp.getParamCount () + size > MAX_BIND_VARIABLES) throw new IllegalArgumentException ("Too many values for IN: " + n + ", at most " + MAX_BIND_VARIABLES + " bind variables are allowed per statement");
+        final Object last = values [n - 1];
+        
+        qp.append (" IN(");
+        
+        for (int i = 0; i < size; i ++) {
+            
+            if (i % IN_COLLECTION_CHUNK == 0) {
+                if (i > 0) qp.append (")) UNION ALL ");
+                qp.append ("SELECT ");
+                qp.append (element);
+                qp.append (" FROM TABLE(");
+                qp.append (typeName);
+                qp.append ('(');
+            }
+            else {
+                qp.append (',');
+            }
+            
+            qp.add ("?", i < n ? values [i] : last, col);
+            
+        }
+        
+        qp.append (")))");
+        
+    }
+    
+    private Object [] toCollectionElements (PhysicalCol col, Object [] values) {
+        
+        Object [] elements = new Object [values.length];
+        
+        for (int i = 0; i < values.length; i ++) {
+            
+            Object v = values [i];
+            
+            if (v instanceof Def) v = ((Def) v).getValue ();
+            
+            if (v == null) continue;
+            
+            switch (col.getType ()) {
+                case NUMERIC:
+                case INTEGER:
+                    elements [i] = 
+                        v instanceof BigDecimal ? v : 
+                        v instanceof Boolean ? ((Boolean) v ? BigDecimal.ONE : BigDecimal.ZERO) : 
+                        new BigDecimal (v.toString ());
+                    break;
+                case VARBINARY:
+                    elements [i] = toVarbinary (v);
+                    break;
+                default:
+                    elements [i] = v.toString ();
+            }
+            
+        }
+        
+        return elements;
+        
+    }
 
+    /**
+     * Ограничение выборки: для 12c и выше -- OFFSET ? ROWS FETCH NEXT ? ROWS ONLY, 
+     * для более старых версий -- вложенные подзапросы с rownum (и полем rnum в выборке).
+     * @param inqp исходный запрос
+     * @param offset сдвиг 1-й записи
+     * @param limit максимальная длина выборки
+     * @return ограниченный запрос
+     */
     @Override
     public QP toLimitedQP (QP inqp, int offset, Integer limit) {
         
+        if (isOffsetFetchSupported ()) {
+            
+            QP qp = new QP ("");
+            qp.add (inqp);
+            if (offset > 0) qp.add (" OFFSET ? ROWS", offset, dummyIntCol);
+            qp.add (offset > 0 ? " FETCH NEXT ? ROWS ONLY" : " FETCH FIRST ? ROWS ONLY", limit, dummyIntCol);
+            
+            return qp;
+            
+        }
+        
         QP qp = new QP ("SELECT * FROM(SELECT rownum rnum, a.* FROM(");        
         qp.add (inqp);        
         qp.add (") a WHERE rownum <= ?", (offset + limit), dummyIntCol);
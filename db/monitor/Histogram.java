@@ -0,0 +1,139 @@
+package ru.eludia.base.db.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма неотрицательных целых значений (длительностей в нс, числа записей)
+ * с логарифмической шкалой в духе HdrHistogram.
+ * 
+ * Каждая степень двойки делится на SUB_BUCKETS равных интервалов, так что 
+ * относительная погрешность квантилей не превышает 1/SUB_BUCKETS. Значения 
+ * свыше 2^MAX_MAGNITUDE попадают в последний интервал (но max учитывает их точно).
+ * 
+ * Запись не блокирует: только атомарные инкременты.
+ */
+public final class Histogram {
+    
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_MAGNITUDE = 40;
+    private static final int SIZE = (MAX_MAGNITUDE - SUB_BITS + 2) * SUB_BUCKETS;
+    
+    final AtomicLongArray counts = new AtomicLongArray (SIZE);
+    final LongAdder count = new LongAdder ();
+    final LongAdder sum = new LongAdder ();
+    final AtomicLong max = new AtomicLong ();
+    
+    static int indexOf (long v) {
+        
+        if (v < SUB_BUCKETS) return (int) v;
+        
+        final int shift = 63 - Long.numberOfLeadingZeros (v) - SUB_BITS;
+        
+        final int i = ((shift + 1) << SUB_BITS) + (int) ((v >>> shift) & (SUB_BUCKETS - 1));
+        
+        return i < SIZE ? i : SIZE - 1;
+        
+    }
+    
+    static long lowerBoundOf (int i) {
+        if (i < SUB_BUCKETS) return i;
+        final int shift = (i >> SUB_BITS) - 1;
+        return (long) (SUB_BUCKETS + (i & (SUB_BUCKETS - 1))) << shift;
+    }
+    
+    static long upperBoundOf (int i) {
+        return i < SUB_BUCKETS ? i : lowerBoundOf (i + 1) - 1;
+    }
+    
+    /**
+     * Учёт значения
+     * @param v значение; отрицательные игнорируются
+     */
+    public void record (long v) {
+        
+        if (v < 0L) return;
+        
+        counts.incrementAndGet (indexOf (v));
+        count.increment ();
+        sum.add (v);
+        
+        long m = max.get ();
+        while (v > m && !max.compareAndSet (m, v)) m = max.get ();
+        
+    }
+    
+    /**
+     * @return число учтённых значений
+     */
+    public long getCount () {
+        return count.sum ();
+    }
+    
+    /**
+     * @return сумма учтённых значений
+     */
+    public long getSum () {
+        return sum.sum ();
+    }
+    
+    /**
+     * @return максимальное учтённое значение
+     */
+    public long getMax () {
+        return max.get ();
+    }
+    
+    /**
+     * @return среднее значение; 0, если ничего не учтено
+     */
+    public double getMean () {
+        final long n = getCount ();
+        return n == 0L ? 0.0 : (double) getSum () / n;
+    }
+    
+    /**
+     * Оценка квантиля сверху (с точностью до ширины интервала).
+     * @param p уровень, от 0 до 100 (50 -- медиана, 99 -- 99-й перцентиль)
+     * @return значение, не меньшее чем у p% учтённых; 0, если ничего не учтено
+     */
+    public long getPercentile (double p) {
+        
+        if (p < 0.0 || p > 100.0) throw new IllegalArgumentException ("Illegal percentile: " + p);
+        
+        long total = 0L;
+        for (int i = 0; i < SIZE; i ++) total += counts.get (i);
+        
+        if (total == 0L) return 0L;
+        
+        final long rank = Math.max (1L, (long) Math.ceil (total * p / 100.0));
+        
+        long seen = 0L;
+        
+        for (int i = 0; i < SIZE; i ++) {
+            seen += counts.get (i);
+            if (seen >= rank) return Math.min (upperBoundOf (i), getMax ());
+        }
+        
+        return getMax ();
+        
+    }
+    
+    /**
+     * Обнуление
+     */
+    public void reset () {
+        for (int i = 0; i < SIZE; i ++) counts.set (i, 0L);
+        count.reset ();
+        sum.reset ();
+        max.set (0L);
+    }
+
+    @Override
+    public String toString () {
+        return "{count: " + getCount () + ", mean: " + Math.round (getMean ()) + ", p50: " + getPercentile (50) + ", p99: " + getPercentile (99) + ", max: " + getMax () + "}";
+    }
+    
+}
@@ -0,0 +1,57 @@
+package ru.eludia.base.db.monitor;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Запись сведений о запросах в журнал java.util.logging.
+ * 
+ * Зарегистрирован в каждой модели по умолчанию. Запросы пишутся с заданным 
+ * уровнем (INFO, если не указано иное), ошибки -- с уровнем SEVERE. 
+ * Значения параметров запрашиваются только тогда, когда этот уровень 
+ * действительно включён.
+ */
+public class LoggingQueryListener implements QueryListener {
+    
+    private static final Logger logger = Logger.getLogger (LoggingQueryListener.class.getName ());
+    
+    Level level;
+
+    public LoggingQueryListener () {
+        this (Level.INFO);
+    }
+
+    /**
+     * Конструктор
+     * @param level уровень, с которым пишутся успешно исполненные запросы
+     */
+    public LoggingQueryListener (Level level) {
+        this.level = level;
+    }
+
+    public Level getLevel () {
+        return level;
+    }
+
+    public void setLevel (Level level) {
+        this.level = level;
+    }
+
+    @Override
+    public boolean isTracingParams () {
+        return logger.isLoggable (level);
+    }
+
+    @Override
+    public void onQuery (QueryEvent e) {
+        
+        if (e.isFailed ()) {
+            logger.log (Level.SEVERE, e.getError ().getMessage () + " for " + e);
+            return;
+        }
+        
+        if (logger.isLoggable (level)) logger.log (level, e.toString ());
+        
+    }
+    
+}
@@ -0,0 +1,221 @@
+package ru.eludia.base.db.monitor;
+
+import java.sql.SQLException;
+import ru.eludia.base.DB;
+import ru.eludia.base.db.sql.build.SQLBuilder;
+
+/**
+ * Сведения об одном исполнении запроса: SQL, число параметров, 
+ * размер пакета и продолжительность отдельных фаз.
+ * 
+ * Фазы: подготовка (выдача PreparedStatement), подстановка параметров, 
+ * исполнение и выборка результата (в которую входит и работа обработчика 
+ * записей). Для DML выборки нет. Время замеряется System.nanoTime ().
+ */
+public final class QueryEvent {
+    
+    DB db;
+    SQLBuilder b;
+    boolean prepared = true;
+    SQLException error;
+    long rows = -1L;
+    
+    long tsStart;
+    long tsPrepared;
+    long tsBound;
+    long tsExecuted;
+    long tsDone;
+
+    /**
+     * Конструктор. Вызывается из DB непосредственно перед подготовкой запроса.
+     * @param db соединение
+     * @param b SQL с параметрами
+     */
+    public QueryEvent (DB db, SQLBuilder b) {
+        this.db = db;
+        this.b = b;
+        this.tsStart = System.nanoTime ();
+    }
+    
+    /**
+     * Отметка об окончании подготовки запроса
+     */
+    public void prepared () {
+        tsPrepared = System.nanoTime ();
+    }
+    
+    /**
+     * Отметка об окончании подстановки параметров
+     */
+    public void bound () {
+        tsBound = System.nanoTime ();
+    }
+    
+    /**
+     * Отметка об окончании исполнения (перед выборкой результата)
+     */
+    public void executed () {
+        tsExecuted = System.nanoTime ();
+    }
+    
+    /**
+     * Запись числа выбранных/изменённых записей
+     * @param rows число записей; отрицательное значение -- неизвестно
+     */
+    public void setRows (long rows) {
+        this.rows = rows < 0L ? -1L : rows;
+    }
+    
+    /**
+     * Отметка о том, что запрос исполнен через createStatement, без подготовки 
+     * и параметров.
+     */
+    public void unprepared () {
+        prepared = false;
+        tsPrepared = tsBound = System.nanoTime ();
+    }
+    
+    /**
+     * Отметка об аварийном завершении
+     * @param ex ошибка
+     */
+    public void failed (SQLException ex) {
+        error = ex;
+    }
+    
+    /**
+     * Отметка о завершении. Повторные вызовы игнорируются.
+     */
+    public void done () {
+        if (tsDone != 0L) return;
+        tsDone = System.nanoTime ();
+        if (tsPrepared == 0L) tsPrepared = tsDone;
+        if (tsBound == 0L) tsBound = tsDone;
+        if (tsExecuted == 0L) tsExecuted = tsDone;
+    }
+
+    /**
+     * @return соединение, на котором исполнялся запрос
+     */
+    public DB getDb () {
+        return db;
+    }
+
+    /**
+     * @return SQL-запрос с параметрами
+     */
+    public SQLBuilder getBuilder () {
+        return b;
+    }
+
+    /**
+     * @return текст SQL
+     */
+    public String getSQL () {
+        return b.getSQL ();
+    }
+    
+    /**
+     * @return число параметров в одном исполнении
+     */
+    public int getParamCount () {
+        return b.getParamCount ();
+    }
+    
+    /**
+     * @return число записей в пакете (1 для обычного запроса)
+     */
+    public int getBatchSize () {
+        return b.getBatchSize ();
+    }
+    
+    /**
+     * @return значения параметров, если хотя бы один из получателей 
+     * запросил трассировку, иначе null
+     */
+    public String getParamTrace () {
+        return b.isTracing () ? b.getParamTrace () : null;
+    }
+
+    /**
+     * @return false, если запрос исполнен через createStatement
+     */
+    public boolean isPrepared () {
+        return prepared;
+    }
+
+    /**
+     * @return ошибка, прервавшая исполнение, либо null
+     */
+    public SQLException getError () {
+        return error;
+    }
+    
+    public boolean isFailed () {
+        return error != null;
+    }
+    
+    /**
+     * @return продолжительность подготовки запроса, нс
+     */
+    public long getPrepareNanos () {
+        return tsPrepared - tsStart;
+    }
+    
+    /**
+     * @return продолжительность подстановки параметров, нс
+     */
+    public long getBindNanos () {
+        return tsBound - tsPrepared;
+    }
+    
+    /**
+     * @return продолжительность исполнения, нс
+     */
+    public long getExecuteNanos () {
+        return tsExecuted - tsBound;
+    }
+    
+    /**
+     * @return продолжительность выборки результата, нс
+     */
+    public long getFetchNanos () {
+        return tsDone - tsExecuted;
+    }
+    
+    /**
+     * @return число выбранных (для SELECT) либо изменённых записей; -1, если неизвестно
+     */
+    public long getRows () {
+        return rows;
+    }
+    
+    /**
+     * @return полная продолжительность, нс
+     */
+    public long getTotalNanos () {
+        return tsDone - tsStart;
+    }
+    
+    /**
+     * @return полная продолжительность, мс
+     */
+    public long getTotalMillis () {
+        return getTotalNanos () / 1000000L;
+    }
+
+    @Override
+    public String toString () {
+        
+        StringBuilder sb = new StringBuilder (b.toString ());
+        
+        final int batchSize = getBatchSize ();        
+        if (batchSize != 1) sb.append (", batch of ").append (batchSize);
+        
+        sb.append (isFailed () ? ", failed, " : ", done, ").append (getTotalMillis ()).append (" ms");
+        
+        return sb.toString ();
+        
+    }
+    
+}
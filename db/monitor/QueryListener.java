@@ -0,0 +1,33 @@
+package ru.eludia.base.db.monitor;
+
+/**
+ * Получатель сведений об исполненных запросах.
+ * 
+ * Регистрируется либо в модели (Model.addQueryListener), и тогда получает 
+ * события от всех соединений, либо в отдельном экземпляре DB.
+ * 
+ * Вызывается в том же потоке, где исполнялся запрос, сразу по его 
+ * завершении (в том числе аварийном), так что не должен делать ничего долгого.
+ */
+@FunctionalInterface
+public interface QueryListener {
+    
+    /**
+     * Требуется ли этому получателю трассировка значений параметров.
+     * 
+     * Если ни одному из получателей она не нужна, текстовое представление 
+     * параметров не формируется вовсе.
+     * 
+     * @return true, если надо заполнять QueryEvent.getParamTrace ()
+     */
+    default boolean isTracingParams () {
+        return false;
+    }
+    
+    /**
+     * Обработка события
+     * @param e сведения о запросе
+     */
+    void onQuery (QueryEvent e);
+    
+}
@@ -0,0 +1,80 @@
+package ru.eludia.base.db.monitor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Список получателей событий QueryEvent.
+ * 
+ * Регистрация может происходить в любой момент из любого потока, 
+ * рассылка событий при этом не блокируется.
+ * 
+ * Ошибки в получателях записываются в журнал и на исполнение запросов не влияют.
+ */
+public final class QueryListeners {
+    
+    private static final Logger logger = Logger.getLogger (QueryListeners.class.getName ());
+    
+    List<QueryListener> listeners = new CopyOnWriteArrayList<> ();
+
+    public QueryListeners (QueryListener... listeners) {
+        for (QueryListener i: listeners) add (i);
+    }
+    
+    public void add (QueryListener l) {
+        if (l == null) throw new IllegalArgumentException ("null listener passed");
+        listeners.add (l);
+    }
+    
+    public void remove (QueryListener l) {
+        listeners.remove (l);
+    }
+    
+    public void clear () {
+        listeners.clear ();
+    }
+    
+    public boolean isEmpty () {
+        return listeners.isEmpty ();
+    }
+    
+    /**
+     * Поиск зарегистрированного получателя по классу
+     * @param c класс получателя
+     * @return первый подходящий получатель либо null
+     */
+    public <T extends QueryListener> T get (Class<T> c) {
+        for (QueryListener i: listeners) if (c.isInstance (i)) return c.cast (i);
+        return null;
+    }
+
+    /**
+     * @return true, если хотя бы одному получателю нужна трассировка параметров
+     */
+    public boolean isTracingParams () {
+        for (QueryListener i: listeners) if (i.isTracingParams ()) return true;
+        return false;
+    }
+    
+    /**
+     * Рассылка события всем получателям
+     * @param e событие
+     */
+    public void fire (QueryEvent e) {
+        
+        for (QueryListener i: listeners) {
+            
+            try {
+                i.onQuery (e);
+            }
+            catch (RuntimeException ex) {
+                logger.log (Level.WARNING, "Query listener " + i + " failed", ex);
+            }
+            
+        }
+        
+    }
+
+}
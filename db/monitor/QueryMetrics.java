@@ -0,0 +1,215 @@
+package ru.eludia.base.db.monitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Накопитель статистики по запросам, сгруппированным по отпечатку SQL 
+ * (см. SQLFingerprint): гистограммы длительностей подготовки, подстановки 
+ * параметров, исполнения, выборки и числа записей.
+ * 
+ * Зарегистрирован в каждой модели по умолчанию (Model.getQueryMetrics ()).
+ * 
+ * Число различных отпечатков ограничено: всё, что сверх лимита, 
+ * учитывается под общим ключом OTHER.
+ */
+public final class QueryMetrics implements QueryListener {
+    
+    public static final int DEFAULT_MAX_FINGERPRINTS = 1000;
+    
+    /**
+     * Ключ, под которым учитываются запросы сверх лимита отпечатков
+     */
+    public static final String OTHER = "(other)";
+    
+    Map<String, Stat> stats = new ConcurrentHashMap<> ();
+    int maxFingerprints;
+
+    public QueryMetrics () {
+        this (DEFAULT_MAX_FINGERPRINTS);
+    }
+
+    /**
+     * Конструктор
+     * @param maxFingerprints максимальное число различных отпечатков
+     */
+    public QueryMetrics (int maxFingerprints) {
+        if (maxFingerprints < 1) throw new IllegalArgumentException ("Illegal maxFingerprints value: " + maxFingerprints);
+        this.maxFingerprints = maxFingerprints;
+    }
+
+    @Override
+    public void onQuery (QueryEvent e) {
+        
+        String fingerprint = SQLFingerprint.of (e.getSQL ());
+        
+        Stat stat = stats.get (fingerprint);
+        
+        if (stat == null) {
+            if (stats.size () >= maxFingerprints) fingerprint = OTHER;
+            stat = stats.computeIfAbsent (fingerprint, Stat::new);
+        }
+        
+        stat.record (e);
+        
+    }
+    
+    /**
+     * Статистика по заданному запросу
+     * @param sql текст запроса (нормализуется)
+     * @return накопленная статистика либо null, если такой запрос не исполнялся
+     */
+    public Stat get (String sql) {
+        return stats.get (SQLFingerprint.of (sql));
+    }
+    
+    /**
+     * @return статистика по всем отпечаткам, в произвольном порядке
+     */
+    public Collection<Stat> getAll () {
+        return Collections.unmodifiableCollection (stats.values ());
+    }
+    
+    /**
+     * Самые затратные запросы
+     * @param n сколько надо
+     * @return не более n записей в порядке убывания суммарного времени
+     */
+    public List<Stat> getTop (int n) {
+        
+        List<Stat> result = new ArrayList<> (stats.values ());
+        
+        result.sort (Comparator.comparingLong (Stat::getTotalNanos).reversed ());
+        
+        return result.size () > n ? new ArrayList<> (result.subList (0, n)) : result;
+        
+    }
+    
+    /**
+     * Сброс всей накопленной статистики
+     */
+    public void reset () {
+        stats.clear ();
+    }
+    
+    /**
+     * Статистика по одному отпечатку SQL
+     */
+    public static final class Stat {
+        
+        final String fingerprint;
+        
+        final LongAdder errors  = new LongAdder ();
+        final Histogram prepare = new Histogram ();
+        final Histogram bind    = new Histogram ();
+        final Histogram execute = new Histogram ();
+        final Histogram fetch   = new Histogram ();
+        final Histogram total   = new Histogram ();
+        final Histogram rows    = new Histogram ();
+        final Histogram batch   = new Histogram ();
+
+        Stat (String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+        
+        void record (QueryEvent e) {
+            if (e.isFailed ()) errors.increment ();
+            prepare.record (e.getPrepareNanos ());
+            bind.record    (e.getBindNanos ());
+            execute.record (e.getExecuteNanos ());
+            fetch.record   (e.getFetchNanos ());
+            total.record   (e.getTotalNanos ());
+            rows.record    (e.getRows ());
+            batch.record   (e.getBatchSize ());
+        }
+
+        public String getFingerprint () {
+            return fingerprint;
+        }
+        
+        /**
+         * @return число исполнений
+         */
+        public long getCount () {
+            return total.getCount ();
+        }
+        
+        /**
+         * @return число исполнений, завершившихся ошибкой
+         */
+        public long getErrors () {
+            return errors.sum ();
+        }
+        
+        /**
+         * @return суммарное время всех исполнений, нс
+         */
+        public long getTotalNanos () {
+            return total.getSum ();
+        }
+
+        /**
+         * @return длительности подготовки запроса, нс
+         */
+        public Histogram getPrepare () {
+            return prepare;
+        }
+
+        /**
+         * @return длительности подстановки параметров, нс
+         */
+        public Histogram getBind () {
+            return bind;
+        }
+
+        /**
+         * @return длительности исполнения, нс
+         */
+        public Histogram getExecute () {
+            return execute;
+        }
+
+        /**
+         * @return длительности выборки результата, нс
+         */
+        public Histogram getFetch () {
+            return fetch;
+        }
+
+        /**
+         * @return полные длительности, нс
+         */
+        public Histogram getTotal () {
+            return total;
+        }
+
+        /**
+         * @return числа выбранных/изменённых записей (там, где они известны)
+         */
+        public Histogram getRows () {
+            return rows;
+        }
+
+        /**
+         * @return размеры пакетов
+         */
+        public Histogram getBatch () {
+            return batch;
+        }
+
+        @Override
+        public String toString () {
+            return "{sql: \"" + fingerprint + "\", count: " + getCount () + ", errors: " + getErrors () 
+                + ", total: " + total + ", prepare: " + prepare + ", bind: " + bind 
+                + ", execute: " + execute + ", fetch: " + fetch + ", rows: " + rows + "}";
+        }
+        
+    }
+    
+}
@@ -0,0 +1,124 @@
+package ru.eludia.base.db.monitor;
+
+/**
+ * Нормализация текста SQL для группировки статистики: 
+ * строковые и числовые литералы заменяются на '?', списки '?' через запятую 
+ * (IN (?,?,?) и т. п.) сворачиваются в '?...', комментарии '--' удаляются, 
+ * пробельные символы сводятся к одному пробелу.
+ * 
+ * Идентификаторы в кавычках и подсказки оптимизатору сохраняются как есть.
+ */
+public final class SQLFingerprint {
+    
+    private SQLFingerprint () {
+    }
+    
+    private static boolean isWordChar (char c) {
+        return Character.isLetterOrDigit (c) || c == '_' || c == '$' || c == '#' || c == ':';
+    }
+    
+    /**
+     * Вычисление отпечатка
+     * @param sql текст запроса
+     * @return нормализованный текст
+     */
+    public static String of (String sql) {
+        
+        final int len = sql.length ();
+        
+        StringBuilder sb = new StringBuilder (len);
+        
+        int i = 0;
+        
+        while (i < len) {
+            
+            char c = sql.charAt (i);
+            
+            if (Character.isWhitespace (c)) {
+                while (i < len && Character.isWhitespace (sql.charAt (i))) i ++;
+                final int n = sb.length ();
+                if (n > 0 && sb.charAt (n - 1) != ' ') sb.append (' ');
+                continue;
+            }
+            
+            if (c == '-' && i + 1 < len && sql.charAt (i + 1) == '-') {
+                while (i < len && sql.charAt (i) != '\n') i ++;
+                continue;
+            }
+            
+            if (c == '\'') {
+                i ++;
+                while (i < len) {
+                    if (sql.charAt (i ++) != '\'') continue;
+                    if (i < len && sql.charAt (i) == '\'') {i ++; continue;}
+                    break;
+                }
+                appendParam (sb);
+                continue;
+            }
+            
+            if (c == '"') {
+                final int end = sql.indexOf ('"', i + 1);
+                final int next = end < 0 ? len : end + 1;
+                sb.append (sql, i, next);
+                i = next;
+                continue;
+            }
+            
+            if (Character.isDigit (c) && (sb.length () == 0 || !isWordChar (sb.charAt (sb.length () - 1)))) {
+                while (i < len && (Character.isDigit (sql.charAt (i)) || sql.charAt (i) == '.')) i ++;
+                appendParam (sb);
+                continue;
+            }
+            
+            if (c == '?') {
+                i ++;
+                appendParam (sb);
+                continue;
+            }
+            
+            if (c == ',' || c == ')') {
+                final int last = sb.length () - 1;
+                if (last >= 0 && sb.charAt (last) == ' ') sb.setLength (last);
+            }
+            
+            sb.append (c);
+            i ++;
+            
+        }
+        
+        int last = sb.length () - 1;
+        if (last >= 0 && sb.charAt (last) == ' ') sb.setLength (last);
+        
+        return sb.toString ();
+        
+    }
+
+    private static void appendParam (StringBuilder sb) {
+        
+        int n = sb.length ();
+        
+        if (n > 0 && sb.charAt (n - 1) == ' ') n --;
+        
+        if (n > 0 && sb.charAt (n - 1) == ',') {
+            
+            final int prev = n - 1;
+            
+            if (prev >= 4 && sb.lastIndexOf ("?...", prev) == prev - 4) {
+                sb.setLength (prev);
+                return;
+            }
+            
+            if (prev >= 1 && sb.charAt (prev - 1) == '?') {
+                sb.setLength (prev);
+                sb.append ("...");
+                return;
+            }
+            
+        }
+        
+        sb.append ('?');
+        
+    }
+    
+}
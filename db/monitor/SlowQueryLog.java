@@ -0,0 +1,276 @@
+package ru.eludia.base.db.monitor;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import ru.eludia.base.DB;
+import ru.eludia.base.model.Table;
+
+/**
+ * Журнал медленных запросов: всё, что исполнялось дольше заданного порога, 
+ * записывается вместе со значениями параметров и планом исполнения 
+ * (DB.getLastPlan (), для Oracle -- DBMS_XPLAN.DISPLAY_CURSOR на том же соединении)
+ * в кольцевой буфер фиксированного размера и, если задана, в таблицу БД.
+ * 
+ * Не зарегистрирован по умолчанию, подключается так:
+ * 
+ *  model.addQueryListener (new SlowQueryLog (1000L));
+ */
+public class SlowQueryLog implements QueryListener {
+    
+    private static final Logger logger = Logger.getLogger (SlowQueryLog.class.getName ());
+    
+    public static final int DEFAULT_CAPACITY = 100;
+    
+    private static final ThreadLocal<Boolean> writing = new ThreadLocal<> ();
+    
+    long thresholdNanos;
+    Entry [] ring;
+    long total = 0L;
+    Table table;
+
+    /**
+     * Конструктор
+     * @param thresholdMillis порог, мс: запросы, исполнявшиеся не меньше, считаются медленными
+     */
+    public SlowQueryLog (long thresholdMillis) {
+        this (thresholdMillis, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Конструктор
+     * @param thresholdMillis порог, мс
+     * @param capacity число хранимых в памяти последних записей
+     */
+    public SlowQueryLog (long thresholdMillis, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException ("Illegal capacity value: " + capacity);
+        setThresholdMillis (thresholdMillis);
+        this.ring = new Entry [capacity];
+    }
+
+    public final long getThresholdMillis () {
+        return thresholdNanos / 1000000L;
+    }
+
+    public final void setThresholdMillis (long thresholdMillis) {
+        if (thresholdMillis < 0L) throw new IllegalArgumentException ("Illegal threshold value: " + thresholdMillis);
+        this.thresholdNanos = thresholdMillis * 1000000L;
+    }
+
+    public final Table getTable () {
+        return table;
+    }
+
+    /**
+     * Установка таблицы, куда дополнительно копируются все записи журнала. 
+     * Запись производится через отдельное соединение, так что не зависит 
+     * от исхода транзакции медленного запроса.
+     * @param table описание таблицы, объявленное как наследник SlowQueryTable; null -- не писать в БД
+     */
+    public final void setTable (Table table) {
+        this.table = table;
+    }
+
+    @Override
+    public void onQuery (QueryEvent e) {
+        
+        if (e.getTotalNanos () < thresholdNanos) return;
+        
+        if (writing.get () != null) return;
+        
+        writing.set (Boolean.TRUE);
+        
+        try {
+            
+            Entry entry = new Entry (e, e.isFailed () ? null : e.getDb ().getLastPlan ());
+            
+            add (entry);
+            
+            logger.log (Level.WARNING, "Slow query: " + entry);
+            
+            if (table != null) store (entry);
+            
+        }
+        finally {
+            writing.remove ();
+        }
+        
+    }
+    
+    private synchronized void add (Entry entry) {
+        ring [(int) (total ++ % ring.length)] = entry;
+    }
+    
+    private void store (Entry entry) {
+        
+        try (DB db = table.getModel ().getDb ()) {
+            
+            db.insert (table, DB.HASH (
+                "ts",         new Timestamp (entry.ts),
+                "ms",         entry.ms,
+                "cnt",        entry.rows < 0L ? null : entry.rows,
+                "batch_size", entry.batchSize,
+                "sql_text",   entry.sql,
+                "params",     entry.params,
+                "plan_text",  entry.plan
+            ));
+            
+        }
+        catch (SQLException ex) {
+            logger.log (Level.WARNING, "Cannot store slow query", ex);
+        }
+        
+    }
+    
+    /**
+     * @return записи, хранящиеся в памяти, от самой старой к самой новой
+     */
+    public synchronized List<Entry> getEntries () {
+        
+        final int size = (int) Math.min (total, ring.length);
+        
+        List<Entry> result = new ArrayList<> (size);
+        
+        for (long i = total - size; i < total; i ++) result.add (ring [(int) (i % ring.length)]);
+        
+        return result;
+        
+    }
+    
+    /**
+     * @return общее число медленных запросов с момента создания либо последнего clear ()
+     */
+    public synchronized long getTotal () {
+        return total;
+    }
+    
+    /**
+     * Очистка буфера в памяти
+     */
+    public synchronized void clear () {
+        for (int i = 0; i < ring.length; i ++) ring [i] = null;
+        total = 0L;
+    }
+
+    /**
+     * Запись о медленном запросе
+     */
+    public static final class Entry {
+        
+        final long ts;
+        final long ms;
+        final long rows;
+        final int batchSize;
+        final String sql;
+        final String params;
+        final String plan;
+        final String error;
+        final long prepareNanos;
+        final long bindNanos;
+        final long executeNanos;
+        final long fetchNanos;
+        
+        Entry (QueryEvent e, String plan) {
+            this.ts           = System.currentTimeMillis ();
+            this.ms           = e.getTotalMillis ();
+            this.rows         = e.getRows ();
+            this.batchSize    = e.getBatchSize ();
+            this.sql          = e.getSQL ();
+            this.params       = e.getBuilder ().getParamSummary ();
+            this.plan         = plan;
+            this.error        = e.isFailed () ? e.getError ().getMessage () : null;
+            this.prepareNanos = e.getPrepareNanos ();
+            this.bindNanos    = e.getBindNanos ();
+            this.executeNanos = e.getExecuteNanos ();
+            this.fetchNanos   = e.getFetchNanos ();
+        }
+
+        /**
+         * @return время завершения запроса, мс с начала эпохи
+         */
+        public long getTs () {
+            return ts;
+        }
+
+        public long getMillis () {
+            return ms;
+        }
+
+        /**
+         * @return число записей; -1, если неизвестно
+         */
+        public long getRows () {
+            return rows;
+        }
+
+        public int getBatchSize () {
+            return batchSize;
+        }
+
+        public String getSQL () {
+            return sql;
+        }
+
+        /**
+         * @return значения параметров (для пакетов -- первые несколько записей)
+         */
+        public String getParams () {
+            return params;
+        }
+
+        /**
+         * @return план исполнения либо null
+         */
+        public String getPlan () {
+            return plan;
+        }
+
+        /**
+         * @return текст ошибки либо null
+         */
+        public String getError () {
+            return error;
+        }
+
+        public long getPrepareNanos () {
+            return prepareNanos;
+        }
+
+        public long getBindNanos () {
+            return bindNanos;
+        }
+
+        public long getExecuteNanos () {
+            return executeNanos;
+        }
+
+        public long getFetchNanos () {
+            return fetchNanos;
+        }
+
+        @Override
+        public String toString () {
+            
+            StringBuilder sb = new StringBuilder ();
+            
+            sb.append (ms).append (" ms (prepare ").append (prepareNanos / 1000000L)
+                .append (", bind ").append (bindNanos / 1000000L)
+                .append (", execute ").append (executeNanos / 1000000L)
+                .append (", fetch ").append (fetchNanos / 1000000L)
+                .append ("): ").append (sql);
+            
+            if (params.length () > 0) sb.append (' ').append (params);
+            if (error != null) sb.append ("\nerror: ").append (error);
+            if (plan != null) sb.append ('\n').append (plan);
+            
+            return sb.toString ();
+            
+        }
+        
+    }
+    
+}
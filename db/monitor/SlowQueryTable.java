@@ -0,0 +1,36 @@
+package ru.eludia.base.db.monitor;
+
+import ru.eludia.base.model.Table;
+import ru.eludia.base.model.Type;
+import ru.eludia.base.model.def.Def;
+
+/**
+ * Описание таблицы для журнала медленных запросов (см. SlowQueryLog.setTable).
+ * 
+ * Чтобы таблица попала в модель, надо объявить в пакете с описаниями таблиц 
+ * наследника с конструктором без параметров, например:
+ * 
+ *  public class SlowQueries extends SlowQueryTable {
+ *      public SlowQueries () {
+ *          super ("tb_slow_queries");
+ *      }
+ *  }
+ */
+public class SlowQueryTable extends Table {
+
+    public SlowQueryTable (String name) {
+        
+        super (name, "Медленные запросы");
+        
+        pk  ("uuid",       Type.UUID,      Def.NEW_UUID, "Ключ");
+        col ("ts",         Type.TIMESTAMP, Def.NOW,      "Дата/время завершения");
+        col ("ms",         Type.INTEGER,   10,           "Продолжительность, мс");
+        col ("cnt",        Type.INTEGER,   10,   null,   "Число записей");
+        col ("batch_size", Type.INTEGER,   10,   null,   "Размер пакета");
+        col ("sql_text",   Type.TEXT,                    "Текст запроса");
+        col ("params",     Type.TEXT,            null,   "Значения параметров");
+        col ("plan_text",  Type.TEXT,            null,   "План исполнения");
+        
+    }
+    
+}
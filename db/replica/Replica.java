@@ -0,0 +1,276 @@
+package ru.eludia.base.db.replica;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import ru.eludia.base.DB;
+import ru.eludia.base.Model;
+import ru.eludia.base.db.sql.gen.Select;
+import ru.eludia.base.model.Table;
+
+/**
+ * Реплика справочных таблиц модели в памяти.
+ * 
+ * Зарегистрированные таблицы (см. add, addDataTables) целиком загружаются 
+ * методом refresh () в неизменяемые копии (TableSnapshot) с индексами. 
+ * Загрузка идёт в фоне от обращений к реплике: набор копий подменяется 
+ * целиком одной операцией, так что читатели видят либо старые, либо новые 
+ * данные всех таблиц, но не смесь.
+ * 
+ * Типичное использование -- после model.update ():
+ * 
+ *     model.replica ().addDataTables ().refresh ();
+ *     model.replica ().schedule (5, TimeUnit.MINUTES);
+ *     ...
+ *     Map<String, Object> r = model.replica ().getMap (t, id);
+ * 
+ * Изменения, внесённые в таблицы через DB, в реплике видны только 
+ * после очередного refresh (), поэтому реплицировать следует лишь 
+ * редко меняющиеся справочники.
+ */
+public final class Replica implements AutoCloseable {
+    
+    private static final Logger logger = Logger.getLogger (Replica.class.getName ());
+    
+    final Model model;
+    final Set<Table> tables = new LinkedHashSet<> ();
+    
+    volatile Map<String, TableSnapshot> snapshots = Collections.emptyMap ();
+    
+    ScheduledExecutorService scheduler = null;
+
+    /**
+     * Не надо вызывать этот конструктор. Используйте model.replica ()
+     * @param model модель
+     */
+    public Replica (Model model) {
+        this.model = model;
+    }
+    
+    /**
+     * Регистрация таблиц для репликации. Данные загружаются при очередном refresh ()
+     * @param ts описания таблиц
+     * @return this
+     */
+    public synchronized Replica add (Table... ts) {
+        for (Table t: ts) {
+            if (t == null) throw new IllegalArgumentException ("null table passed");
+            tables.add (t);
+        }
+        return this;
+    }
+    
+    /**
+     * Регистрация таблиц для репликации.
+     * @param cs классы описаний таблиц
+     * @return this
+     */
+    public Replica add (Class... cs) {
+        for (Class c: cs) add (model.get (c));
+        return this;
+    }
+    
+    /**
+     * Регистрация всех таблиц модели с предопределёнными данными (item, data)
+     * @return this
+     */
+    public Replica addDataTables () {
+        for (Table t: model.getTables ()) if (!t.getData ().isEmpty ()) add (t);
+        return this;
+    }
+    
+    /**
+     * Признак того, что таблица зарегистрирована в реплике
+     * @param t описание таблицы
+     * @return true, если зарегистрирована
+     */
+    public synchronized boolean contains (Table t) {
+        return tables.contains (t);
+    }
+    
+    private static TableSnapshot load (DB db, Table t) throws SQLException {
+        return new TableSnapshot (t, db.getList (new Select (t, "*")));
+    }
+    
+    /**
+     * Перезагрузка всех зарегистрированных таблиц и атомарная подмена их копий
+     * @throws SQLException
+     */
+    public void refresh () throws SQLException {
+        
+        final Table [] ts;
+        
+        synchronized (this) {
+            ts = tables.toArray (new Table [0]);
+        }
+        
+        Map<String, TableSnapshot> loaded = new HashMap<> (ts.length * 4 / 3 + 1);
+        
+        try (DB db = model.getDb ()) {
+            for (Table t: ts) loaded.put (t.getName (), load (db, t));
+        }
+        
+        synchronized (this) {
+            snapshots = Collections.unmodifiableMap (loaded);
+        }
+        
+        logger.fine ("Replica refreshed: " + loaded.values ());
+        
+    }
+    
+    /**
+     * Перезагрузка одной таблицы (например, после её изменения)
+     * @param t описание таблицы; если не была зарегистрирована, регистрируется
+     * @throws SQLException
+     */
+    public void refresh (Table t) throws SQLException {
+        
+        add (t);
+        
+        final TableSnapshot snapshot;
+        
+        try (DB db = model.getDb ()) {
+            snapshot = load (db, t);
+        }
+        
+        synchronized (this) {
+            Map<String, TableSnapshot> m = new HashMap<> (snapshots);
+            m.put (t.getName (), snapshot);
+            snapshots = Collections.unmodifiableMap (m);
+        }
+        
+    }
+    
+    /**
+     * Перезагрузка одной таблицы
+     * @param c класс описания таблицы
+     * @throws SQLException
+     */
+    public void refresh (Class c) throws SQLException {
+        refresh (model.get (c));
+    }
+    
+    /**
+     * Периодическая перезагрузка всех таблиц в фоновом потоке. 
+     * Ошибки загрузки пишутся в журнал, прежние копии при этом остаются в силе.
+     * @param period интервал между окончанием одной загрузки и началом следующей
+     * @param unit единица измерения period
+     */
+    public synchronized void schedule (long period, TimeUnit unit) {
+        
+        if (scheduler != null) scheduler.shutdownNow ();
+        
+        scheduler = Executors.newSingleThreadScheduledExecutor (r -> {
+            Thread t = new Thread (r, "replica-refresh");
+            t.setDaemon (true);
+            return t;
+        });
+        
+        scheduler.scheduleWithFixedDelay (() -> {
+            try {
+                refresh ();
+            }
+            catch (Exception ex) {
+                logger.log (Level.SEVERE, "Can't refresh replica", ex);
+            }
+        }, period, period, unit);
+        
+    }
+    
+    /**
+     * Остановка периодической перезагрузки
+     */
+    @Override
+    public synchronized void close () {
+        if (scheduler == null) return;
+        scheduler.shutdownNow ();
+        scheduler = null;
+    }
+    
+    /**
+     * Текущая копия таблицы
+     * @param t описание таблицы
+     * @return копия либо null, если таблица не загружена
+     */
+    public TableSnapshot get (Table t) {
+        return snapshots.get (t.getName ());
+    }
+    
+    /**
+     * Текущая копия таблицы
+     * @param c класс описания таблицы
+     * @return копия либо null, если таблица не загружена
+     */
+    public TableSnapshot get (Class c) {
+        return get (model.get (c));
+    }
+    
+    /**
+     * Запись по первичному ключу: из копии, а если таблица не загружена -- из БД
+     * @param t описание таблицы
+     * @param id значение первичного ключа
+     * @return запись либо null
+     * @throws SQLException
+     */
+    public Map<String, Object> getMap (Table t, Object id) throws SQLException {
+        
+        final TableSnapshot s = get (t);
+        
+        if (s != null) return s.getMap (id);
+        
+        try (DB db = model.getDb ()) {
+            return db.getMap (t, id);
+        }
+        
+    }
+    
+    /**
+     * Индекс записей по первичному ключу: из копии, а если таблица не загружена -- из БД
+     * @param t описание таблицы
+     * @return Map: значение PK → запись
+     * @throws SQLException
+     */
+    public Map<Object, Map<String, Object>> getIdx (Table t) throws SQLException {
+        
+        final TableSnapshot s = get (t);
+        
+        if (s != null) return s.getIdx ();
+        
+        try (DB db = model.getDb ()) {
+            return db.getIdx (new Select (t, "*"), null);
+        }
+        
+    }
+    
+    /**
+     * Выборка по запросу: из копии, если таблица загружена и запрос 
+     * достаточно прост (см. TableSnapshot.getList (Select)), иначе -- из БД
+     * @param select запрос
+     * @return список записей
+     * @throws SQLException
+     */
+    public List<Map<String, Object>> getList (Select select) throws SQLException {
+        
+        final TableSnapshot s = get (select.getTable ());
+        
+        if (s != null) {
+            final List<Map<String, Object>> result = s.getList (select);
+            if (result != null) return result;
+        }
+        
+        try (DB db = model.getDb ()) {
+            return db.getList (select);
+        }
+        
+    }
+    
+}
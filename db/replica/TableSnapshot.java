@@ -0,0 +1,438 @@
+package ru.eludia.base.db.replica;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import ru.eludia.base.db.sql.build.QP;
+import ru.eludia.base.db.sql.gen.Filter;
+import ru.eludia.base.db.sql.gen.Operator;
+import ru.eludia.base.db.sql.gen.Predicate;
+import ru.eludia.base.db.sql.gen.ResultCol;
+import ru.eludia.base.db.sql.gen.Select;
+import ru.eludia.base.model.Col;
+import ru.eludia.base.model.Key;
+import ru.eludia.base.model.Table;
+import ru.eludia.base.model.def.Def;
+
+/**
+ * Неизменяемая копия содержимого таблицы в памяти (см. Replica) 
+ * с индексами по первичному ключу и по всем ключам (Key) из её описания.
+ * 
+ * Значения ключей при поиске сравниваются в нормализованном виде: 
+ * числа -- без учёта класса и незначащих нулей, прочее -- как строки.
+ */
+public final class TableSnapshot {
+    
+    private static final Pattern ORDER_TERM = Pattern.compile ("\\s*(?:(\\w+)\\.)?(\\w+)(?:\\s+(ASC|DESC))?\\s*", Pattern.CASE_INSENSITIVE);
+    
+    final Table table;
+    final List<Map<String, Object>> rows;
+    final Map<Object, Map<String, Object>> idx;
+    final Map<Object, Map<String, Object>> byPk;
+    final Map<String, Map<List<Object>, List<Map<String, Object>>>> byKey;
+    final long loadedAt;
+
+    /**
+     * Конструктор
+     * @param table описание таблицы
+     * @param rows все её записи (в виде HASH)
+     */
+    public TableSnapshot (Table table, List<Map<String, Object>> rows) {
+        
+        this.table = table;
+        this.loadedAt = System.currentTimeMillis ();
+        
+        final List<Col> pk = table.getPk ();
+        final int pkSize = pk == null ? 0 : pk.size ();
+        
+        List<Map<String, Object>> list = new ArrayList<> (rows.size ());
+        Map<Object, Map<String, Object>> raw = new LinkedHashMap<> (rows.size () * 4 / 3 + 1);
+        Map<Object, Map<String, Object>> norm = new HashMap<> (rows.size () * 4 / 3 + 1);
+        
+        for (Map<String, Object> r: rows) {
+            
+            final Map<String, Object> row = Collections.unmodifiableMap (r);
+            
+            list.add (row);
+            
+            if (pkSize == 0) continue;
+            
+            if (pkSize == 1) {
+                final Object id = row.get (pk.get (0).getName ());
+                raw.put (id, row);
+                norm.put (normalize (id), row);
+                continue;
+            }
+            
+            List<Object> id = new ArrayList<> (pkSize);
+            for (Col c: pk) id.add (row.get (c.getName ()));
+            raw.put (Collections.unmodifiableList (id), row);
+            norm.put (normalize (id), row);
+            
+        }
+        
+        this.rows = Collections.unmodifiableList (list);
+        this.idx  = Collections.unmodifiableMap (raw);
+        this.byPk = norm;
+        
+        Map<String, Map<List<Object>, List<Map<String, Object>>>> keys = new HashMap<> ();
+        
+        for (Key k: table.getKeys ().values ()) {
+            
+            Map<List<Object>, List<Map<String, Object>>> index = new HashMap<> ();
+            
+            for (Map<String, Object> row: this.rows) {
+                List<Object> values = new ArrayList<> (k.getParts ().size ());
+                for (String part: k.getParts ()) values.add (normalize (row.get (part)));
+                index.computeIfAbsent (values, x -> new ArrayList<> (1)).add (row);
+            }
+            
+            for (Map.Entry<List<Object>, List<Map<String, Object>>> i: index.entrySet ()) i.setValue (Collections.unmodifiableList (i.getValue ()));
+            
+            keys.put (k.getName (), index);
+            
+        }
+        
+        this.byKey = keys;
+        
+    }
+    
+    /**
+     * Нормализованное значение для сравнения ключей. Пустая строка, 
+     * как и в Oracle (где HASH выдаёт её вместо NULL), считается за null.
+     * @param v значение поля либо параметра
+     * @return строка, список строк (для составных значений) либо null
+     */
+    static Object normalize (Object v) {
+        
+        if (v instanceof Def) v = ((Def) v).getValue ();
+        
+        if (v == null || "".equals (v)) return null;
+        
+        if (v instanceof List) {
+            List<Object> l = new ArrayList<> (((List) v).size ());
+            for (Object i: (List) v) l.add (normalize (i));
+            return l;
+        }
+        
+        if (v instanceof Boolean) return (Boolean) v ? "1" : "0";
+        
+        if (v instanceof Number) {
+            try {
+                return new BigDecimal (v.toString ()).stripTrailingZeros ().toPlainString ();
+            }
+            catch (NumberFormatException ex) {
+                return v.toString ();
+            }
+        }
+        
+        return v.toString ();
+        
+    }
+
+    /**
+     * @return описание таблицы
+     */
+    public Table getTable () {
+        return table;
+    }
+
+    /**
+     * @return момент загрузки (System.currentTimeMillis ())
+     */
+    public long getLoadedAt () {
+        return loadedAt;
+    }
+    
+    /**
+     * Все записи таблицы
+     * @return неизменяемый список неизменяемых хэшей
+     */
+    public List<Map<String, Object>> getList () {
+        return rows;
+    }
+    
+    /**
+     * Индекс записей по первичному ключу, как DB.getIdx
+     * @return Map: значение PK (для составного -- List значений) → запись
+     */
+    public Map<Object, Map<String, Object>> getIdx () {
+        return idx;
+    }
+    
+    /**
+     * Запись по первичному ключу
+     * @param id значение PK; для составного -- List значений в порядке getPk ()
+     * @return запись либо null
+     */
+    public Map<String, Object> getMap (Object id) {
+        if (id instanceof Object []) id = Arrays.asList ((Object []) id);
+        return byPk.get (normalize (id));
+    }
+    
+    /**
+     * Записи по значениям полей ключа (Key) из описания таблицы
+     * @param keyName имя ключа
+     * @param values значения его полей по порядку
+     * @return неизменяемый список записей (возможно, пустой)
+     */
+    public List<Map<String, Object>> getBy (String keyName, Object... values) {
+        
+        final Map<List<Object>, List<Map<String, Object>>> index = byKey.get (keyName);
+        
+        if (index == null) throw new IllegalArgumentException ("No key " + keyName + " defined for " + table.getName ());
+        
+        List<Object> key = new ArrayList<> (values.length);
+        
+        for (Object v: values) key.add (normalize (v));
+        
+        final List<Map<String, Object>> result = index.get (key);
+        
+        return result == null ? Collections.emptyList () : result;
+        
+    }
+    
+    /**
+     * Исполнение простого запроса по этой копии. Поддерживаются запросы 
+     * к этой таблице без JOIN, с фильтрами вида =, IN (по списку значений), 
+     * IS [NOT] NULL (в том числе с NOT, ... и OR), ORDER BY по полям и limit.
+     * 
+     * Если среди фильтров есть равенства по первичному ключу либо по всем 
+     * полям какого-либо ключа (Key), записи берутся из соответствующего 
+     * индекса, а не перебором всей таблицы.
+     * @param s запрос
+     * @return выборка в виде списка хэшей либо null, если запрос не поддерживается
+     */
+    public List<Map<String, Object>> getList (Select s) {
+        
+        if (!isSupported (s)) return null;
+        
+        List<Map<String, Object>> result = new ArrayList<> ();
+        
+        for (Map<String, Object> row: candidates (s)) if (matches (s, row)) result.add (row);
+        
+        final Comparator<Map<String, Object>> order = toComparator (s.getOrder ());
+        
+        if (order != null) result.sort (order);
+        
+        if (s.getLimit () != null) {
+            final int from = Math.min (s.getOffset (), result.size ());
+            final int to = Math.min (from + s.getLimit (), result.size ());
+            result = result.subList (from, to);
+        }
+        
+        List<Map<String, Object>> projected = new ArrayList<> (result.size ());
+        
+        for (Map<String, Object> row: result) projected.add (project (s, row));
+        
+        return projected;
+        
+    }
+    
+    /**
+     * Записи, среди которых следует искать удовлетворяющие запросу: 
+     * из индекса, если фильтры позволяют, иначе все
+     */
+    private List<Map<String, Object>> candidates (Select s) {
+        
+        Map<String, Object> eq = new HashMap<> ();
+        
+        for (Filter f: s.getFilters ()) {
+            
+            if (f.getNextFilter () != null) continue;
+            
+            final Predicate p = f.getPredicate ();
+            
+            if (p.getOperator () != Operator.EQ || p.isNot () || p.isOrNull ()) continue;
+            
+            final Object [] values = p.getValues ();
+            
+            if (values == null || values.length != 1) continue;
+            
+            final Object v = normalize (values [0]);
+            
+            if (v != null) eq.put (f.getColumn ().getName (), v);
+            
+        }
+        
+        if (eq.isEmpty ()) return rows;
+        
+        final List<Col> pk = table.getPk ();
+        
+        if (pk != null && pk.size () == 1 && eq.containsKey (pk.get (0).getName ())) {
+            final Map<String, Object> row = byPk.get (eq.get (pk.get (0).getName ()));
+            return row == null ? Collections.emptyList () : Collections.singletonList (row);
+        }
+        
+        for (Key k: table.getKeys ().values ()) {
+            
+            if (!eq.keySet ().containsAll (k.getParts ())) continue;
+            
+            final Map<List<Object>, List<Map<String, Object>>> index = byKey.get (k.getName ());
+            
+            if (index == null) continue;
+            
+            List<Object> key = new ArrayList<> (k.getParts ().size ());
+            
+            for (String part: k.getParts ()) key.add (eq.get (part));
+            
+            final List<Map<String, Object>> result = index.get (key);
+            
+            return result == null ? Collections.emptyList () : result;
+            
+        }
+        
+        return rows;
+        
+    }
+    
+    private boolean isSupported (Select s) {
+        
+        if (!table.getName ().equals (s.getTable ().getName ())) return false;
+        
+        if (!s.getJoins ().isEmpty () || s.getAfter () != null || s.isWithCnt ()) return false;
+        
+        for (Filter f: s.getFilters ()) for (Filter i = f; i != null; i = i.getNextFilter ()) if (!isSupported (i.getPredicate ())) return false;
+        
+        final String order = s.getOrder ();
+        
+        if (order != null) for (String term: order.split (",")) {
+            Matcher m = ORDER_TERM.matcher (term);
+            if (!m.matches ()) return false;
+            if (m.group (1) != null && !m.group (1).equals (s.getTableAlias ())) return false;
+            if (table.getColumn (m.group (2)) == null) return false;
+        }
+        
+        return true;
+        
+    }
+    
+    private static boolean isSupported (Predicate p) {
+        
+        switch (p.getOperator ()) {
+            case IS_NULL:
+            case EQ:
+                return true;
+            case IN:
+                for (Object v: p.getValues ()) if (v instanceof Select || v instanceof QP) return false;
+                return true;
+            default:
+                return false;
+        }
+        
+    }
+    
+    private static boolean matches (Select s, Map<String, Object> row) {
+        
+        for (Filter f: s.getFilters ()) {
+            
+            boolean ok = false;
+            
+            for (Filter i = f; i != null && !ok; i = i.getNextFilter ()) ok = matches (i, row);
+            
+            if (!ok) return false;
+            
+        }
+        
+        return true;
+        
+    }
+    
+    private static boolean matches (Filter f, Map<String, Object> row) {
+        
+        final Predicate p = f.getPredicate ();
+        
+        final Object v = normalize (row.get (f.getColumn ().getName ()));
+        
+        if (v == null) return p.getOperator () == Operator.IS_NULL ? !p.isNot () : p.isOrNull ();
+        
+        boolean result = false;
+        
+        switch (p.getOperator ()) {
+            case IS_NULL:
+                break;
+            case EQ:
+            case IN:
+                for (Object i: p.getValues ()) if (v.equals (normalize (i))) result = true;
+                break;
+        }
+        
+        return p.isNot () ? !result : result;
+        
+    }
+    
+    private Comparator<Map<String, Object>> toComparator (String order) {
+        
+        if (order == null) return null;
+        
+        Comparator<Map<String, Object>> result = null;
+        
+        for (String term: order.split (",")) {
+            
+            final Matcher m = ORDER_TERM.matcher (term);
+            
+            m.matches ();
+            
+            final String name = table.getColumn (m.group (2)).getName ();
+            
+            Comparator<Map<String, Object>> c = (a, b) -> compare (a.get (name), b.get (name));
+            
+            if ("DESC".equalsIgnoreCase (m.group (3))) c = c.reversed ();
+            
+            result = result == null ? c : result.thenComparing (c);
+            
+        }
+        
+        return result;
+        
+    }
+    
+    /**
+     * Сравнение значений полей как в Oracle: NULL (и пустая строка) больше любого значения
+     */
+    private static int compare (Object a, Object b) {
+        
+        if ("".equals (a)) a = null;
+        if ("".equals (b)) b = null;
+        
+        if (a == null) return b == null ? 0 : 1;
+        
+        if (b == null) return -1;
+        
+        if (a instanceof Number && b instanceof Number) return new BigDecimal (a.toString ()).compareTo (new BigDecimal (b.toString ()));
+        
+        if (a instanceof Comparable && a.getClass () == b.getClass ()) return ((Comparable) a).compareTo (b);
+        
+        return a.toString ().compareTo (b.toString ());
+        
+    }
+    
+    private static Map<String, Object> project (Select s, Map<String, Object> row) {
+        
+        final ResultCol [] cols = s.getColumns ();
+        
+        Map<String, Object> result = new LinkedHashMap<> (cols.length * 4 / 3 + 1);
+        
+        for (ResultCol c: cols) {
+            final String name = c.getName ().toLowerCase ();
+            result.put (c.getAlias () == null ? name : c.getAlias (), row.get (name));
+        }
+        
+        return result;
+        
+    }
+    
+    @Override
+    public String toString () {
+        return "{table: " + table.getName () + ", rows: " + rows.size () + ", loadedAt: " + loadedAt + "}";
+    }
+    
+}
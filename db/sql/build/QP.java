@@ -1,12 +1,24 @@
 package ru.eludia.base.db.sql.build;
 
+import java.io.InputStream;
 import java.sql.JDBCType;
 import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import javax.xml.datatype.XMLGregorianCalendar;
+import ru.eludia.base.model.def.Def;
 import ru.eludia.base.model.phys.PhysicalCol;
 import ru.eludia.base.db.util.ParamSetter;
 
@@ -16,7 +28,18 @@ import ru.eludia.base.db.util.ParamSetter;
  */
 public class QP extends SQLBuilder {
     
+    private static final int MAX_CACHED_TYPE_VECTORS = 4096;
+    
+    /**
+     * Типы параметров для каждого текста SQL: полученные от драйвера 
+     * (ParameterMetaData) при первом исполнении, а если он их не выдал -- 
+     * определённые по значениям (последние используются для NULL-значений).
+     */
+    private static final Map<String, ParamTypes> types = new ConcurrentHashMap<> ();
+    
     List <Object> params = new ArrayList <> ();
+    
+    int fetchSize = 0;
 
     /**
      * Добавить вложенный фрагмент SQL вместе со списком параметров.
@@ -79,18 +102,161 @@ public class QP extends SQLBuilder {
     public List<Object> getParams () {
         return params;
     }
+
+    /**
+     * Размер порции, в которой записи выборки передаются с сервера
+     * @return 0, если не задан (тогда используется DB.DEFAULT_FETCH_SIZE)
+     */
+    public final int getFetchSize () {
+        return fetchSize;
+    }
+
+    /**
+     * Установка размера порции, в которой записи выборки передаются с сервера.
+     * Действует в DB.forEach и всех построенных на нём методах.
+     * @param fetchSize число записей; 0 -- по умолчанию
+     * @return this
+     */
+    public final QP setFetchSize (int fetchSize) {
+        if (fetchSize < 0) throw new IllegalArgumentException ("Illegal fetchSize value: " + fetchSize);
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    @Override
+    public int getParamCount () {
+        return params.size ();
+    }
+            
+    /**
+     * Определение JDBC-типа параметра по классу его значения.
+     * @param p значение параметра
+     * @return null для null, иначе тип, подходящий для ParamSetter.setParam
+     */
+    public static JDBCType toJDBCType (Object p) {
+        
+        if (p == null) return null;
+        
+        if (p instanceof Def) p = ((Def) p).getValue ();
+        
+        if (p instanceof String) return JDBCType.VARCHAR;
+        if (p instanceof Number || p instanceof Boolean) return JDBCType.NUMERIC;
+        if (p instanceof java.util.Date || p instanceof XMLGregorianCalendar) return JDBCType.TIMESTAMP;
+        if (p instanceof LocalDate || p instanceof LocalDateTime || p instanceof Instant || p instanceof OffsetDateTime || p instanceof ZonedDateTime) return JDBCType.TIMESTAMP;
+        if (p instanceof UUID || p instanceof byte []) return JDBCType.VARBINARY;
+        if (p instanceof InputStream) return JDBCType.BLOB;
+        
+        return JDBCType.VARCHAR;
+        
+    }
+
+    /**
+     * Типы (и для описанных драйвером -- размерности) параметров одного текста SQL
+     */
+    private static final class ParamTypes {
+        
+        final JDBCType [] types;
+        final int [] lengths;
+
+        ParamTypes (JDBCType [] types, int [] lengths) {
+            this.types = types;
+            this.lengths = lengths;
+        }
+        
+        boolean isDescribed () {
+            return lengths != null;
+        }
+        
+    }
+    
+    private ParamTypes describe (PreparedStatement st, int size) {
+        
+        try {
+            
+            final ParameterMetaData md = st.getParameterMetaData ();
+            
+            if (md != null && md.getParameterCount () == size) {
+                
+                final JDBCType [] t = new JDBCType [size];
+                final int [] l = new int [size];
+                
+                for (int n = 1; n <= size; n ++) {
+                    t [n - 1] = JDBCType.valueOf (md.getParameterType (n));
+                    l [n - 1] = md.getPrecision (n);
+                }
+                
+                return new ParamTypes (t, l);
+                
+            }
             
-    void setParams (PreparedStatement st, ParamSetter ps, List<Object> params, ParameterMetaData md) throws SQLException {
+        }
+        catch (SQLException | IllegalArgumentException ex) {
+            logger.log (Level.FINE, "Can't describe parameters, inferring types from values", ex);
+        }
+        
+        return new ParamTypes (new JDBCType [size], null);
+        
+    }
+
+    /**
+     * Подстановка параметров запроса, собранного вручную.
+     * 
+     * Типы параметров запрашиваются у драйвера (ParameterMetaData) один раз 
+     * на каждый текст SQL. По ним передаются строки и NULL-значения -- так, 
+     * строка с UUID для поля RAW проходит через toVarbinary, строка с датой 
+     * для поля DATE -- через to.timestamp и т. п. Для значений прочих 
+     * классов тип определяется по классу (см. toJDBCType). Если драйвер 
+     * не описал параметры, по классу определяются все типы.
+     */
+    void setParams (PreparedStatement st, ParamSetter ps, List<Object> params) throws SQLException {
+        
+        final String sql = getSQL ();
+        final int size = params.size ();
+        
+        ParamTypes known = types.get (sql);
+        
+        if (known == null || known.types.length != size) {
+            known = describe (st, size);
+            if (types.size () < MAX_CACHED_TYPE_VECTORS) types.put (sql, known);
+        }
+        
+        JDBCType [] learned = null;
+        
+        openLogRecord ();
 
-        for (int n = 1; n <= md.getParameterCount (); n ++) {
+        for (int n = 1; n <= size; n ++) {
             
             Object p = params.get (n - 1);
+            
+            JDBCType type = p instanceof String ? null : toJDBCType (p);
+            
+            final JDBCType knownType = known.types [n - 1];
+            
+            int length = 0;
+            
+            if (type != null) {
+                if (!known.isDescribed () && knownType != type) {
+                    if (learned == null) learned = known.types.clone ();
+                    learned [n - 1] = type;
+                }
+            }
+            else if (known.isDescribed ()) {
+                type = knownType;
+                length = known.lengths [n - 1];
+            }
+            else {
+                type = p != null || knownType == null ? JDBCType.VARCHAR : knownType;
+            }
 
-            ps.setParam (st, n, JDBCType.valueOf (md.getParameterType (n)), md.getPrecision (n), p);
+            ps.setParam (st, n, type, length, p);
             
             logParam (p);
 
         }
+        
+        closeLogRecord ();
+        
+        if (learned != null) types.replace (sql, new ParamTypes (learned, null));
 
     }
 
@@ -114,6 +280,19 @@ public class QP extends SQLBuilder {
         
     }
     
+    @Override
+    void traceParams () {
+        
+        if (params.isEmpty ()) return;
+        
+        openLogRecord ();
+        
+        for (Object p: params) logParam (p);
+        
+        closeLogRecord ();
+        
+    }
+    
     @Override
     public void setParams (PreparedStatement st, ParamSetter ps) throws SQLException {
 
@@ -125,7 +304,7 @@ public class QP extends SQLBuilder {
         
         else
             
-            setParams (st, ps, params, st.getParameterMetaData ());
+            setParams (st, ps, params);
                     
     }    
 
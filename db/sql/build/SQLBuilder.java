@@ -19,10 +19,12 @@ import ru.eludia.base.db.util.ParamSetter;
 public abstract class SQLBuilder {
     
     static final int MAX_LOG_PARAM_LEN = 40;
+    static final int MAX_LOG_RECORDS = 10;
 
     StringBuilder sb = new StringBuilder ();
     StringBuilder psb = new StringBuilder ();
     List <PhysicalCol> cols;
+    boolean tracing = false;
     
     final Logger logger = Logger.getLogger (this.getClass ().getName ());
 
@@ -36,6 +38,79 @@ public abstract class SQLBuilder {
     public boolean isToPrepare () {
         return true;
     }
+    
+    /**
+     * Включение/выключение трассировки значений параметров.
+     * 
+     * По умолчанию выключена: текстовое представление параметров 
+     * формируется только тогда, когда его кто-то запросил (см. QueryListener).
+     * Для пакетных запросов трассируются только первые несколько записей.
+     * 
+     * @param tracing true, если setParams должен записывать значения параметров
+     */
+    public final void setTracing (boolean tracing) {
+        this.tracing = tracing;
+    }
+
+    public final boolean isTracing () {
+        return tracing;
+    }
+    
+    /**
+     * Число параметров в одном исполнении запроса
+     * @return subj
+     */
+    public int getParamCount () {
+        return cols == null ? 0 : cols.size ();
+    }
+    
+    /**
+     * Число записей, передаваемых одним пакетом
+     * @return 1 для обычных запросов
+     */
+    public int getBatchSize () {
+        return 1;
+    }
+    
+    /**
+     * Значения параметров, записанные при трассировке
+     * @return текст вида [1,"a",NULL] либо пустая строка, если трассировка не велась
+     */
+    public final String getParamTrace () {
+        return psb.toString ();
+    }
+    
+    /**
+     * Значения параметров в виде текста, в том числе после исполнения 
+     * запроса без трассировки (тогда они формируются при первом вызове).
+     * @return текст вида [1,"a",NULL]; для пакетов -- первые несколько записей
+     */
+    public final String getParamSummary () {
+        
+        if (psb.length () == 0) {
+            
+            final boolean trace = tracing;
+            
+            tracing = true;
+            
+            try {
+                traceParams ();
+            }
+            finally {
+                tracing = trace;
+            }
+            
+        }
+        
+        return psb.toString ();
+        
+    }
+    
+    /**
+     * Запись значений параметров в буфер трассировки без их подстановки в запрос
+     */
+    void traceParams () {
+    }
         
     /**
      * Добавление одиночного символа к формируемому SQL.
@@ -135,10 +210,12 @@ public abstract class SQLBuilder {
     /**
      * Запуск предоставленного запроса (одиночный либо пакетный)
      * @param st
+     * @return число изменённых записей; -1, если неизвестно
      * @throws SQLException
      */
-    public void execute (PreparedStatement st) throws SQLException {
+    public int execute (PreparedStatement st) throws SQLException {
         st.execute ();
+        return st.getUpdateCount ();
     }    
     
     public static void setLastChar (StringBuilder b, char c) {
@@ -157,14 +234,16 @@ public abstract class SQLBuilder {
     }
     
     final void openLogRecord () {
-        psb.append ('[');
+        if (tracing) psb.append ('[');
     }
     
     final void closeLogRecord () {
-        setLastChar (psb, ']');
+        if (tracing) setLastChar (psb, ']');
     }
 
     void logParam (Object p) {
+        
+        if (!tracing) return;
                 
         if (p == null) {
             psb.append ("NULL,");
@@ -0,0 +1,105 @@
+package ru.eludia.base.db.sql.build;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import ru.eludia.base.db.util.ParamSetter;
+
+/**
+ * Пакет однотипных DML-запросов (с одним и тем же текстом SQL),
+ * накопленных для исполнения через addBatch/executeBatch (см. DB.batch).
+ */
+public final class StatementBatch extends SQLBuilder {
+    
+    List<SQLBuilder> items = new ArrayList<> ();
+    
+    /**
+     * Конструктор
+     * @param b первый запрос пакета
+     */
+    public StatementBatch (SQLBuilder b) {
+        super (b.getSQL ());
+        items.add (b);
+    }
+    
+    /**
+     * Проверка, можно ли добавить запрос в этот пакет
+     * @param b запрос
+     * @return true, если у b тот же текст SQL
+     */
+    public boolean accepts (SQLBuilder b) {
+        return sb.length () == b.sb.length () && getSQL ().equals (b.getSQL ());
+    }
+    
+    /**
+     * Добавление запроса в пакет. Текст SQL должен совпадать (см. accepts).
+     * @param b запрос
+     */
+    public void add (SQLBuilder b) {
+        items.add (b);
+    }
+    
+    @Override
+    public int getParamCount () {
+        return items.get (0).getParamCount ();
+    }
+    
+    @Override
+    public int getBatchSize () {
+        return items.size ();
+    }
+
+    @Override
+    public void setParams (PreparedStatement st, ParamSetter ps) throws SQLException {
+        
+        openLogRecord ();
+        
+        int n = 0;
+        
+        for (SQLBuilder b: items) {
+            
+            b.setParams (st, ps);
+            
+            st.addBatch ();
+            
+            if (tracing && n ++ < MAX_LOG_RECORDS) psb.append (b.getParamSummary ()).append (',');
+            
+        }
+        
+        if (tracing && n > MAX_LOG_RECORDS) psb.append ("...").append (n - MAX_LOG_RECORDS).append (" more,");
+        
+        closeLogRecord ();
+
+    }
+    
+    @Override
+    void traceParams () {
+        
+        openLogRecord ();
+        
+        final int n = Math.min (items.size (), MAX_LOG_RECORDS);
+        
+        for (int i = 0; i < n; i ++) psb.append (items.get (i).getParamSummary ()).append (',');
+        
+        if (items.size () > n) psb.append ("...").append (items.size () - n).append (" more,");
+        
+        closeLogRecord ();
+        
+    }
+    
+    @Override
+    public int execute (PreparedStatement st) throws SQLException {
+        
+        int total = 0;
+        
+        for (int i: st.executeBatch ()) {
+            if (i < 0) return -1;
+            total += i;
+        }
+        
+        return total;
+        
+    }
+    
+}
@@ -30,25 +30,75 @@ public class TableRecordListBuilder extends TableSQLBuilder {
         if (records.isEmpty ()) return;
         if (cols.isEmpty ()) return;
         
+        final boolean trace = tracing;
+        
         openLogRecord ();
+        
+        int n = 0;
+        
+        try {
 
-        for (Map<String, Object> record: records) {
-                        
-            setParams (st, ps, record);                        
-            
-            st.addBatch ();
+            for (Map<String, Object> record: records) {
+                
+                if (n ++ == MAX_LOG_RECORDS) tracing = false;
+
+                setParams (st, ps, record);                        
+
+                st.addBatch ();
+
+                if (tracing) psb.append (',');
+
+            }
             
-            psb.append (',');
-                        
         }
+        finally {
+            tracing = trace;
+        }
+        
+        if (tracing && n > MAX_LOG_RECORDS) psb.append ("...").append (n - MAX_LOG_RECORDS).append (" more,");
         
         closeLogRecord ();
 
     }
     
     @Override
-    public void execute (PreparedStatement st) throws SQLException {
-        st.executeBatch ();
+    void traceParams () {
+        
+        if (records.isEmpty ()) return;
+        if (cols.isEmpty ()) return;
+        
+        openLogRecord ();
+        
+        final int n = Math.min (records.size (), MAX_LOG_RECORDS);
+        
+        for (int i = 0; i < n; i ++) {
+            traceParams (records.get (i));
+            psb.append (',');
+        }
+        
+        if (records.size () > n) psb.append ("...").append (records.size () - n).append (" more,");
+        
+        closeLogRecord ();
+        
+    }
+    
+    @Override
+    public int getBatchSize () {
+        return records.size ();
+    }
+    
+    @Override
+    public int execute (PreparedStatement st) throws SQLException {
+        
+        int total = 0;
+        
+        for (int i: st.executeBatch ()) {
+            if (i < 0) return -1;
+            total += i;
+        }
+        
+        return total;
+        
     }
     
 }
\ No newline at end of file
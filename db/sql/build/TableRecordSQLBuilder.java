@@ -27,4 +27,9 @@ public class TableRecordSQLBuilder extends TableSQLBuilder {
         setParams (st, ps, record);
     }
     
+    @Override
+    void traceParams () {
+        if (!cols.isEmpty ()) traceParams (record);
+    }
+    
 }
\ No newline at end of file
@@ -84,6 +84,16 @@ public abstract class TableSQLBuilder extends SQLBuilder {
         return table;
     }
 
+    final void traceParams (Map<String, Object> r) {
+        
+        openLogRecord ();
+
+        for (PhysicalCol col: cols) logParam (r.get (col.getName ()));
+        
+        closeLogRecord ();
+        
+    }
+
     protected final void setParams (PreparedStatement st, ParamSetter ps, Map<String, Object> r) throws SQLException {
         
         openLogRecord ();
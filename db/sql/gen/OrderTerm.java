@@ -0,0 +1,55 @@
+package ru.eludia.base.db.sql.gen;
+
+import ru.eludia.base.model.Col;
+
+/**
+ * Элемент ORDER BY, разобранный для листания по ключу (см. Select.after)
+ */
+public final class OrderTerm {
+    
+    Part part;
+    Col column;
+    boolean desc;
+    String key;
+
+    OrderTerm (Part part, Col column, boolean desc, String key) {
+        this.part = part;
+        this.column = column;
+        this.desc = desc;
+        this.key = key;
+    }
+
+    /**
+     * @return часть запроса (сам Select либо Join), к которой относится поле
+     */
+    public Part getPart () {
+        return part;
+    }
+
+    /**
+     * @return поле таблицы
+     */
+    public Col getColumn () {
+        return column;
+    }
+
+    /**
+     * @return true для сортировки по убыванию
+     */
+    public boolean isDesc () {
+        return desc;
+    }
+
+    /**
+     * @return имя, под которым значение поля фигурирует в записи выборки
+     */
+    public String getKey () {
+        return key;
+    }
+
+    @Override
+    public String toString () {
+        return part.getTableAlias () + '.' + column.getName () + (desc ? " DESC" : " ASC");
+    }
+    
+}
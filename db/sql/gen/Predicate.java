@@ -250,19 +250,19 @@ public class Predicate {
                 qp.add (" AND ?", values [1], col);
                 break;
             case IN:
-                qp.append (" IN(");
                 if (values.length == 1 && values [0] instanceof Select) {
+                    qp.append (" IN(");
                     qp.add (db.toQP ((Select) values [0]));
                     qp.append (')');
                 }
                 else if (values.length == 1 && values [0] instanceof QP) {
+                    qp.append (" IN(");
                     qp.add ((QP) values [0]);
                     qp.append (')');
                 }
                 else {
-                    for (int i = 0; i < values.length; i++) qp.add ("?,", values [i], col);
+                    db.appendIn (qp, col, values);
                 }
-                qp.setLastChar (')');
         }
         
     }
@@ -3,6 +3,10 @@ package ru.eludia.base.db.sql.gen;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import ru.eludia.base.model.Col;
 import ru.eludia.base.model.ColEnum;
 import ru.eludia.base.model.Table;
 
@@ -10,11 +14,22 @@ import ru.eludia.base.model.Table;
  * Генератор плоских SELECT-запросов без группировки
  */
 public class Select extends Part<Select> {
+    
+    /**
+     * Имя служебного поля с общим числом записей (см. withCnt)
+     */
+    public static final String CNT = "__cnt";
 
     List<Join> joins = Collections.EMPTY_LIST;
     StringBuilder order = null;
     int offset = 0;
     Integer limit = null;
+    Integer fetchSize = null;
+    boolean withCnt = false;
+    List<OrderTerm> keyset = null;
+    Map<String, Object> after = null;
+    
+    private static final Pattern ORDER_TERM = Pattern.compile ("\\s*(?:(\\w+)\\.)?(\\w+)(?:\\s+(ASC|DESC))?\\s*", Pattern.CASE_INSENSITIVE);
 
     public Select (Table table, String... names) {
         super (table, names);
@@ -48,6 +63,47 @@ public class Select extends Part<Select> {
         return this;
     }
 
+    /**
+     * Явно заданный размер порции, в которой записи выборки 
+     * передаются с сервера (ResultSet.setFetchSize)
+     * @return null, если не задан (тогда он оценивается по ширине выбираемых полей)
+     */
+    public Integer getFetchSize () {
+        return fetchSize;
+    }
+
+    /**
+     * Установка размера порции, в которой записи выборки передаются с сервера.
+     * Нужна только там, где автоматическая оценка не подходит.
+     * @param fetchSize число записей
+     * @return this
+     */
+    public Select fetchSize (int fetchSize) {
+        if (fetchSize < 1) throw new IllegalArgumentException ("Illegal fetchSize value: " + fetchSize);
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    /**
+     * Признак выдачи в каждой записи поля CNT с общим числом записей без учёта limit
+     * @return true, если поле выдаётся
+     */
+    public boolean isWithCnt () {
+        return withCnt;
+    }
+
+    /**
+     * Включение/выключение выдачи в каждой записи поля CNT 
+     * с общим числом записей без учёта limit (COUNT(*) OVER ()). 
+     * Позволяет получить страницу и её общий счётчик за один запрос (см. DB.getPage).
+     * @param withCnt true, если поле нужно
+     * @return this
+     */
+    public Select withCnt (boolean withCnt) {
+        this.withCnt = withCnt;
+        return this;
+    }
+
     /**
      * Текущий список JOIN-выражений
      * @return 
@@ -88,6 +144,104 @@ public class Select extends Part<Select> {
         return order == null ? null : order.toString ();
     }        
         
+    /**
+     * Листание по ключу (keyset pagination): вместо пропуска offset записей 
+     * выбираются записи, следующие в порядке ORDER BY за заданной.
+     * 
+     * ORDER BY должен состоять из простых полей ("поле", "псевдоним.поле", 
+     * возможно, с ASC/DESC); при первом вызове к нему дописываются 
+     * недостающие поля первичного ключа главной таблицы, так что порядок 
+     * становится однозначным. Значения этих полей в записях не должны быть NULL.
+     * 
+     * @param lastRow последняя запись предыдущей страницы (в виде HASH) 
+     * либо null для первой страницы
+     * @return this
+     */
+    public Select after (Map<String, Object> lastRow) {
+        
+        final List<OrderTerm> terms = getKeyset ();
+        
+        if (lastRow != null) for (OrderTerm t: terms) {
+            if (lastRow.get (t.getKey ()) == null) throw new IllegalArgumentException ("No value for " + t.getKey () + " in " + lastRow);
+        }
+        
+        after = lastRow;
+        
+        return this;
+        
+    }
+    
+    /**
+     * Последняя запись предыдущей страницы при листании по ключу
+     * @return null, если листание по ключу не ведётся либо это 1-я страница
+     */
+    public Map<String, Object> getAfter () {
+        return after;
+    }
+    
+    /**
+     * Разобранный ORDER BY для листания по ключу, дополненный полями 
+     * первичного ключа. При первом вызове дописывает эти поля в ORDER BY.
+     * @return список полей сортировки
+     */
+    public List<OrderTerm> getKeyset () {
+        
+        if (keyset != null) return keyset;
+        
+        List<OrderTerm> terms = new ArrayList<> ();
+        
+        if (order != null) for (String s: order.toString ().split (",")) terms.add (toOrderTerm (s));
+        
+        if (table.getPk () != null) for (Col c: table.getPk ()) {
+            
+            boolean found = false;
+            
+            for (OrderTerm t: terms) if (t.getPart () == this && t.getColumn () == c) found = true;
+            
+            if (found) continue;
+            
+            orderBy (getTableAlias () + '.' + c.getName ());
+            
+            terms.add (new OrderTerm (this, c, false, toKey (this, c)));
+            
+        }
+        
+        keyset = terms;
+        
+        return keyset;
+        
+    }
+    
+    private OrderTerm toOrderTerm (String s) {
+        
+        Matcher m = ORDER_TERM.matcher (s);
+        
+        if (!m.matches ()) throw new IllegalArgumentException ("Keyset pagination requires plain column ORDER BY terms, found: " + s);
+        
+        final String alias = m.group (1);
+        
+        final Part part = alias == null || alias.equals (getTableAlias ()) ? this : getPart (alias);
+        
+        if (part == null) throw new IllegalArgumentException ("Unknown table alias in ORDER BY: " + s);
+        
+        final Col column = part.getTable ().getColumn (m.group (2));
+        
+        if (column == null) throw new IllegalArgumentException ("Column not found in " + part.getTable ().getName () + ": " + m.group (2));
+        
+        return new OrderTerm (part, column, "DESC".equalsIgnoreCase (m.group (3)), toKey (part, column));
+        
+    }
+    
+    private String toKey (Part part, Col column) {
+        
+        final String name = column.getName ();
+        
+        for (ResultCol c: part.getColumns ()) if (c.getAlias () != null && c.getName ().equalsIgnoreCase (name)) return c.getAlias ();
+        
+        return part == this ? name.toLowerCase () : part.getTableAlias ().toLowerCase () + '.' + name.toLowerCase ();
+        
+    }
+        
     /**
      * Низкоуровневое добавление JOIN-выражения.
      * 
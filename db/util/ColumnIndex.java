@@ -0,0 +1,56 @@
+package ru.eludia.base.db.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Неизменяемое соответствие имён полей выборки их позициям. 
+ * Одно на все записи выборки (см. RowMap).
+ */
+public final class ColumnIndex {
+    
+    final String [] names;
+    final Map<String, Integer> positions;
+
+    /**
+     * Конструктор
+     * @param names имена полей, без повторов
+     */
+    public ColumnIndex (String... names) {
+        
+        this.names = names.clone ();
+        this.positions = new HashMap<> (names.length * 2);
+        
+        for (int i = 0; i < names.length; i ++) 
+            if (positions.put (names [i], i) != null) 
+                throw new IllegalArgumentException ("Duplicate column name: " + names [i]);
+        
+    }
+    
+    /**
+     * @return число полей
+     */
+    public int size () {
+        return names.length;
+    }
+    
+    /**
+     * Позиция поля по имени
+     * @param name имя поля (любой объект, как в Map.get)
+     * @return позиция, начиная с 0, либо -1, если такого поля нет
+     */
+    public int indexOf (Object name) {
+        final Integer i = positions.get (name);
+        return i == null ? -1 : i;
+    }
+    
+    /**
+     * Имя поля по позиции
+     * @param i позиция, начиная с 0
+     * @return имя
+     */
+    public String getName (int i) {
+        return names [i];
+    }
+    
+}
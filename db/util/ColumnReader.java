@@ -0,0 +1,22 @@
+package ru.eludia.base.db.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Процедура чтения значения одного поля текущей записи курсора, 
+ * заранее выбранная по метаданным этого поля.
+ */
+@FunctionalInterface
+public interface ColumnReader {
+    
+    /**
+     * Чтение значения
+     * @param rs курсор, для которого успешно вызван next ()
+     * @param n номер поля, начиная с 1
+     * @return то же, что вернул бы DB.getValue (rs, n)
+     * @throws SQLException
+     */
+    Object read (ResultSet rs, int n) throws SQLException;
+    
+}
@@ -0,0 +1,8 @@
+package ru.eludia.base.db.util;
+
+@FunctionalInterface
+public interface JDBCFunction<T, R> {
+    
+    R apply (T t) throws java.sql.SQLException;
+    
+}
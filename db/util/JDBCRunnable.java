@@ -0,0 +1,8 @@
+package ru.eludia.base.db.util;
+
+@FunctionalInterface
+public interface JDBCRunnable {
+    
+    void run () throws java.sql.SQLException;
+    
+}
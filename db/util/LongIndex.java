@@ -0,0 +1,159 @@
+package ru.eludia.base.db.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongFunction;
+
+/**
+ * Индекс записей по ключу типа long: хэш-таблица с открытой адресацией 
+ * на массивах long [] и Object [], без упаковки ключей в Long.
+ * 
+ * Не потокобезопасен. Значения null не допускаются.
+ * 
+ * @param <V> тип значений
+ */
+public final class LongIndex<V> {
+    
+    private static final int MIN_CAPACITY = 16;
+    
+    long [] keys;
+    Object [] values;
+    int size = 0;
+    int mask;
+
+    public LongIndex () {
+        this (MIN_CAPACITY);
+    }
+
+    /**
+     * Конструктор
+     * @param expectedSize ожидаемое число ключей
+     */
+    public LongIndex (int expectedSize) {
+        allocate (capacityFor (expectedSize));
+    }
+    
+    static int capacityFor (int expectedSize) {
+        int c = MIN_CAPACITY;
+        while (c < expectedSize * 2 && c < (1 << 30)) c <<= 1;
+        return c;
+    }
+    
+    private void allocate (int capacity) {
+        keys   = new long [capacity];
+        values = new Object [capacity];
+        mask   = capacity - 1;
+    }
+    
+    static int hash (long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return (int) k;
+    }
+    
+    private int slot (long k) {
+        int i = hash (k) & mask;
+        while (values [i] != null && keys [i] != k) i = (i + 1) & mask;
+        return i;
+    }
+    
+    /**
+     * Значение по ключу
+     * @param k ключ
+     * @return значение либо null, если ключа нет
+     */
+    @SuppressWarnings ("unchecked")
+    public V get (long k) {
+        return (V) values [slot (k)];
+    }
+    
+    public boolean containsKey (long k) {
+        return values [slot (k)] != null;
+    }
+
+    /**
+     * Запись значения по ключу
+     * @param k ключ
+     * @param v значение (не null)
+     * @return прежнее значение либо null
+     */
+    @SuppressWarnings ("unchecked")
+    public V put (long k, V v) {
+        
+        if (v == null) throw new IllegalArgumentException ("null values are not supported");
+        
+        int i = slot (k);
+        
+        final V old = (V) values [i];
+        
+        keys [i] = k;
+        values [i] = v;
+        
+        if (old == null && ++ size * 2 > keys.length) grow ();
+        
+        return old;
+        
+    }
+    
+    /**
+     * Значение по ключу, а если его нет -- вновь вычисленное и записанное
+     * @param k ключ
+     * @param f вычисление значения по ключу (не должно возвращать null)
+     * @return значение
+     */
+    public V computeIfAbsent (long k, LongFunction<V> f) {
+        final V v = get (k);
+        if (v != null) return v;
+        final V nv = f.apply (k);
+        put (k, nv);
+        return nv;
+    }
+    
+    private void grow () {
+        
+        final long [] oldKeys = keys;
+        final Object [] oldValues = values;
+        
+        allocate (keys.length * 2);
+        
+        for (int j = 0; j < oldValues.length; j ++) {
+            if (oldValues [j] == null) continue;
+            final int i = slot (oldKeys [j]);
+            keys [i] = oldKeys [j];
+            values [i] = oldValues [j];
+        }
+        
+    }
+    
+    public int size () {
+        return size;
+    }
+    
+    public boolean isEmpty () {
+        return size == 0;
+    }
+    
+    /**
+     * @return все ключи, в произвольном порядке
+     */
+    public long [] keys () {
+        long [] result = new long [size];
+        int j = 0;
+        for (int i = 0; i < values.length; i ++) if (values [i] != null) result [j ++] = keys [i];
+        return result;
+    }
+    
+    /**
+     * @return все значения, в том же порядке, что и keys ()
+     */
+    @SuppressWarnings ("unchecked")
+    public List<V> values () {
+        List<V> result = new ArrayList<> (size);
+        for (Object v: values) if (v != null) result.add ((V) v);
+        return result;
+    }
+    
+}
@@ -0,0 +1,43 @@
+package ru.eludia.base.db.util;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Страница листаемой выборки вместе с общим числом записей (см. DB.getPage)
+ */
+public final class Page {
+    
+    final List<Map<String, Object>> rows;
+    final int cnt;
+
+    /**
+     * Конструктор
+     * @param rows записи страницы
+     * @param cnt общее число записей без учёта limit
+     */
+    public Page (List<Map<String, Object>> rows, int cnt) {
+        this.rows = rows;
+        this.cnt = cnt;
+    }
+
+    /**
+     * @return записи страницы
+     */
+    public List<Map<String, Object>> getRows () {
+        return rows;
+    }
+
+    /**
+     * @return общее число записей без учёта limit
+     */
+    public int getCnt () {
+        return cnt;
+    }
+
+    @Override
+    public String toString () {
+        return "{cnt: " + cnt + ", rows: " + rows + "}";
+    }
+    
+}
@@ -0,0 +1,299 @@
+package ru.eludia.base.db.util;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.UUID;
+import ru.eludia.base.DB;
+import ru.eludia.base.model.ColEnum;
+
+/**
+ * Многоразовое представление текущей записи курсора для DB.scan ().
+ * 
+ * Один и тот же экземпляр передаётся обработчику для всех записей выборки, 
+ * так что сохранять ссылку на него за пределами обработчика бессмысленно: 
+ * для этого есть toMap ().
+ * 
+ * Имена полей сопоставляются номерам один раз на выборку (без учёта регистра), 
+ * так что чтение примитивных значений (getLong, getInt, getDouble, getBoolean)
+ * не порождает новых объектов. В особо горячих циклах номер поля можно 
+ * вычислить заранее (indexOf) и обращаться к полям по номерам.
+ * 
+ * Как и в JDBC, примитивные методы возвращают 0/false для NULL; отличить 
+ * NULL можно методом isNull ().
+ */
+public final class Row {
+    
+    final DB db;
+    ResultSet rs;
+    RowReader reader;
+    String [] names;
+    Map<String, Integer> positions;
+    Map<ColEnum, Integer> colPositions;
+
+    public Row (DB db) {
+        this.db = db;
+    }
+    
+    /**
+     * Привязка к текущей записи курсора
+     * @param rs курсор, для которого успешно вызван next ()
+     * @return this
+     * @throws SQLException
+     */
+    public Row wrap (ResultSet rs) throws SQLException {
+        
+        if (rs == this.rs) return this;
+        
+        this.rs = rs;
+        this.reader = null;
+        
+        ResultSetMetaData md = rs.getMetaData ();
+        
+        final int cnt = md.getColumnCount ();
+        
+        names = new String [cnt];
+        positions = new HashMap<> (cnt * 2);
+        colPositions = new IdentityHashMap<> ();
+        
+        for (int n = 1; n <= cnt; n ++) {
+            names [n - 1] = md.getColumnName (n);
+            positions.put (names [n - 1], n);
+        }
+        
+        return this;
+        
+    }
+    
+    /**
+     * Номер поля по имени
+     * @param name имя поля (регистр не важен)
+     * @return номер, начиная с 1
+     * @throws IllegalArgumentException, если такого поля нет
+     */
+    public int indexOf (String name) {
+        
+        Integer n = positions.get (name);
+        
+        if (n != null) return n;
+        
+        for (int i = 0; i < names.length; i ++) {
+            if (!names [i].equalsIgnoreCase (name)) continue;
+            positions.put (name, i + 1);
+            return i + 1;
+        }
+        
+        throw new IllegalArgumentException ("Column not found: " + name);
+        
+    }
+    
+    /**
+     * Номер поля по описанию. Сопоставляется один раз на выборку, 
+     * далее без построения строк (в отличие от indexOf (col.lc ()))
+     * @param col описание поля
+     * @return номер, начиная с 1
+     * @throws IllegalArgumentException, если такого поля нет
+     */
+    public int indexOf (ColEnum col) {
+        
+        Integer n = colPositions.get (col);
+        
+        if (n != null) return n;
+        
+        n = indexOf (col.lc ());
+        
+        colPositions.put (col, n);
+        
+        return n;
+        
+    }
+    
+    /**
+     * @return число полей
+     */
+    public int getColumnCount () {
+        return names.length;
+    }
+    
+    /**
+     * @return курсор, текущую запись которого представляет этот объект
+     */
+    public ResultSet getRs () {
+        return rs;
+    }
+    
+    /**
+     * Было ли NULL значение последнего прочитанного поля
+     * @return subj
+     * @throws SQLException
+     */
+    public boolean wasNull () throws SQLException {
+        return rs.wasNull ();
+    }
+    
+    /**
+     * Проверка поля на NULL (с чтением его значения)
+     * @param n номер поля, начиная с 1
+     * @return true, если значение -- NULL
+     * @throws SQLException
+     */
+    public boolean isNull (int n) throws SQLException {
+        rs.getObject (n);
+        return rs.wasNull ();
+    }
+    
+    public boolean isNull (String name) throws SQLException {
+        return isNull (indexOf (name));
+    }
+    
+    public boolean isNull (ColEnum col) throws SQLException {
+        return isNull (indexOf (col));
+    }
+    
+    public long getLong (int n) throws SQLException {
+        return rs.getLong (n);
+    }
+    
+    public long getLong (String name) throws SQLException {
+        return rs.getLong (indexOf (name));
+    }
+    
+    public long getLong (ColEnum col) throws SQLException {
+        return rs.getLong (indexOf (col));
+    }
+    
+    public int getInt (int n) throws SQLException {
+        return rs.getInt (n);
+    }
+    
+    public int getInt (String name) throws SQLException {
+        return rs.getInt (indexOf (name));
+    }
+    
+    public int getInt (ColEnum col) throws SQLException {
+        return rs.getInt (indexOf (col));
+    }
+    
+    public double getDouble (int n) throws SQLException {
+        return rs.getDouble (n);
+    }
+    
+    public double getDouble (String name) throws SQLException {
+        return rs.getDouble (indexOf (name));
+    }
+    
+    public double getDouble (ColEnum col) throws SQLException {
+        return rs.getDouble (indexOf (col));
+    }
+    
+    /**
+     * Логическое значение при условии того, что "истина" представлена числом 1
+     * @param n номер поля, начиная с 1
+     * @return true для 1, false для прочих значений и NULL
+     * @throws SQLException
+     */
+    public boolean getBoolean (int n) throws SQLException {
+        return rs.getInt (n) == 1;
+    }
+    
+    public boolean getBoolean (String name) throws SQLException {
+        return getBoolean (indexOf (name));
+    }
+    
+    public boolean getBoolean (ColEnum col) throws SQLException {
+        return getBoolean (indexOf (col));
+    }
+    
+    public BigDecimal getDecimal (int n) throws SQLException {
+        return rs.getBigDecimal (n);
+    }
+    
+    public BigDecimal getDecimal (String name) throws SQLException {
+        return rs.getBigDecimal (indexOf (name));
+    }
+    
+    public BigDecimal getDecimal (ColEnum col) throws SQLException {
+        return rs.getBigDecimal (indexOf (col));
+    }
+    
+    public String getString (int n) throws SQLException {
+        return rs.getString (n);
+    }
+    
+    public String getString (String name) throws SQLException {
+        return rs.getString (indexOf (name));
+    }
+    
+    public String getString (ColEnum col) throws SQLException {
+        return rs.getString (indexOf (col));
+    }
+    
+    public Timestamp getTimestamp (int n) throws SQLException {
+        return rs.getTimestamp (n);
+    }
+    
+    public Timestamp getTimestamp (String name) throws SQLException {
+        return rs.getTimestamp (indexOf (name));
+    }
+    
+    public Timestamp getTimestamp (ColEnum col) throws SQLException {
+        return rs.getTimestamp (indexOf (col));
+    }
+    
+    /**
+     * UUID из поля, где он хранится в виде 16 байт (RAW(16) для Oracle)
+     * @param n номер поля, начиная с 1
+     * @return null для NULL
+     * @throws SQLException
+     */
+    public UUID getUUID (int n) throws SQLException {
+        byte [] b = rs.getBytes (n);
+        return b == null ? null : TypeConverter.UUID (b);
+    }
+    
+    public UUID getUUID (String name) throws SQLException {
+        return getUUID (indexOf (name));
+    }
+    
+    public UUID getUUID (ColEnum col) throws SQLException {
+        return getUUID (indexOf (col));
+    }
+    
+    /**
+     * Значение поля в том же виде, что и в DB.HASH (rs)
+     * @param n номер поля, начиная с 1
+     * @return значение
+     * @throws SQLException
+     */
+    public Object getValue (int n) throws SQLException {
+        return getReader ().read (rs, n);
+    }
+    
+    public Object getValue (String name) throws SQLException {
+        return getValue (indexOf (name));
+    }
+    
+    public Object getValue (ColEnum col) throws SQLException {
+        return getValue (indexOf (col));
+    }
+    
+    /**
+     * Копия текущей записи в виде хэша, как DB.HASH (rs)
+     * @return запись
+     * @throws SQLException
+     */
+    public Map<String, Object> toMap () throws SQLException {
+        return getReader ().toMap (rs);
+    }
+    
+    private RowReader getReader () throws SQLException {
+        if (reader == null) reader = db.getRowReader (rs);
+        return reader;
+    }
+    
+}
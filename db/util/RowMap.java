@@ -0,0 +1,244 @@
+package ru.eludia.base.db.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Компактное представление записи выборки в виде Map: значения полей 
+ * хранятся в массиве, а имена -- в общем на всю выборку ColumnIndex.
+ * 
+ * С точки зрения вызывающего кода это обычный изменяемый Map: значения 
+ * можно заменять и удалять, а ключи, которых не было в выборке, 
+ * добавлять (они хранятся в отдельном HashMap, создаваемом по надобности). 
+ * Допускаются null-значения.
+ */
+public final class RowMap extends AbstractMap<String, Object> {
+    
+    private static final Object ABSENT = new Object ();
+    
+    final ColumnIndex index;
+    final Object [] values;
+    int absent = 0;
+    Map<String, Object> extra = null;
+    
+    /**
+     * Конструктор
+     * @param index имена полей
+     * @param values значения полей в том же порядке (массив используется как есть, без копирования)
+     */
+    public RowMap (ColumnIndex index, Object [] values) {
+        if (index.size () != values.length) throw new IllegalArgumentException (values.length + " values for " + index.size () + " columns");
+        this.index = index;
+        this.values = values;
+    }
+    
+    @Override
+    public int size () {
+        return values.length - absent + (extra == null ? 0 : extra.size ());
+    }
+
+    @Override
+    public boolean isEmpty () {
+        return size () == 0;
+    }
+
+    @Override
+    public boolean containsKey (Object key) {
+        final int i = index.indexOf (key);
+        if (i >= 0) return values [i] != ABSENT;
+        return extra != null && extra.containsKey (key);
+    }
+
+    @Override
+    public Object get (Object key) {
+        final int i = index.indexOf (key);
+        if (i >= 0) {
+            final Object v = values [i];
+            return v == ABSENT ? null : v;
+        }
+        return extra == null ? null : extra.get (key);
+    }
+
+    @Override
+    public Object put (String key, Object value) {
+        
+        final int i = index.indexOf (key);
+        
+        if (i < 0) {
+            if (extra == null) extra = new HashMap<> ();
+            return extra.put (key, value);
+        }
+        
+        final Object old = values [i];
+        
+        values [i] = value;
+        
+        if (old != ABSENT) return old;
+        
+        absent --;
+        
+        return null;
+        
+    }
+
+    @Override
+    public Object remove (Object key) {
+        
+        final int i = index.indexOf (key);
+        
+        if (i < 0) return extra == null ? null : extra.remove (key);
+        
+        return removeAt (i);
+        
+    }
+    
+    private Object removeAt (int i) {
+        
+        final Object old = values [i];
+        
+        if (old == ABSENT) return null;
+        
+        values [i] = ABSENT;
+        
+        absent ++;
+        
+        return old;
+        
+    }
+
+    @Override
+    public void clear () {
+        Arrays.fill (values, ABSENT);
+        absent = values.length;
+        extra = null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet () {
+        
+        return new AbstractSet<Map.Entry<String, Object>> () {
+            
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator () {
+                return new EntryIterator ();
+            }
+
+            @Override
+            public int size () {
+                return RowMap.this.size ();
+            }
+            
+        };
+        
+    }
+    
+    private final class Slot implements Map.Entry<String, Object> {
+        
+        final int i;
+
+        Slot (int i) {
+            this.i = i;
+        }
+
+        @Override
+        public String getKey () {
+            return index.getName (i);
+        }
+
+        @Override
+        public Object getValue () {
+            final Object v = values [i];
+            return v == ABSENT ? null : v;
+        }
+
+        @Override
+        public Object setValue (Object value) {
+            return put (getKey (), value);
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry e = (Map.Entry) o;
+            return getKey ().equals (e.getKey ()) && Objects.equals (getValue (), e.getValue ());
+        }
+
+        @Override
+        public int hashCode () {
+            return getKey ().hashCode () ^ Objects.hashCode (getValue ());
+        }
+
+        @Override
+        public String toString () {
+            return getKey () + "=" + getValue ();
+        }
+        
+    }
+    
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        
+        int next = -1;
+        int last = -1;
+        Iterator<Map.Entry<String, Object>> extraIterator = null;
+        boolean inExtra = false;
+
+        EntryIterator () {
+            advance ();
+        }
+        
+        private void advance () {
+            next ++;
+            while (next < values.length && values [next] == ABSENT) next ++;
+        }
+
+        @Override
+        public boolean hasNext () {
+            if (next < values.length) return true;
+            if (extra == null) return false;
+            if (extraIterator == null) extraIterator = extra.entrySet ().iterator ();
+            return extraIterator.hasNext ();
+        }
+
+        @Override
+        public Map.Entry<String, Object> next () {
+            
+            if (!hasNext ()) throw new NoSuchElementException ();
+            
+            if (next < values.length) {
+                last = next;
+                advance ();
+                return new Slot (last);
+            }
+            
+            inExtra = true;
+            
+            return extraIterator.next ();
+            
+        }
+
+        @Override
+        public void remove () {
+            
+            if (inExtra) {
+                extraIterator.remove ();
+                return;
+            }
+            
+            if (last < 0) throw new IllegalStateException ();
+            
+            removeAt (last);
+            
+            last = -1;
+            
+        }
+        
+    }
+    
+}
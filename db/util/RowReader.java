@@ -0,0 +1,159 @@
+package ru.eludia.base.db.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Набор процедур чтения всех полей выборки, построенный по её метаданным 
+ * один раз (см. DB.getRowReader) и применяемый ко всем её записям.
+ */
+public final class RowReader {
+    
+    final String [] names;
+    final int [] types;
+    final ColumnReader [] readers;
+    boolean [] hidden;
+    
+    ColumnIndex index;
+    int [] columns;
+
+    /**
+     * Конструктор
+     * @param names имена полей
+     * @param types их типы (java.sql.Types)
+     * @param readers процедуры чтения
+     */
+    public RowReader (String [] names, int [] types, ColumnReader [] readers) {
+        this.names = names;
+        this.types = types;
+        this.readers = readers;
+    }
+    
+    /**
+     * @return число полей
+     */
+    public int getColumnCount () {
+        return names.length;
+    }
+    
+    /**
+     * @param n номер поля, начиная с 1
+     * @return имя поля
+     */
+    public String getName (int n) {
+        return names [n - 1];
+    }
+    
+    /**
+     * @param n номер поля, начиная с 1
+     * @return тип поля (java.sql.Types)
+     */
+    public int getType (int n) {
+        return types [n - 1];
+    }
+    
+    /**
+     * @param n номер поля, начиная с 1
+     * @return true для BLOB-полей, которые не попадают в хэши и JSON
+     */
+    public boolean isBlob (int n) {
+        return types [n - 1] == Types.BLOB;
+    }
+    
+    /**
+     * @param n номер поля, начиная с 1
+     * @return true для полей, которые не попадают в хэши и JSON: 
+     * BLOB и исключённых методом without ()
+     */
+    public boolean isHidden (int n) {
+        return isBlob (n) || (hidden != null && hidden [n - 1]);
+    }
+    
+    /**
+     * Копия набора, в которой поля с заданным именем не попадают в хэши и JSON, 
+     * но по-прежнему доступны через read (). 
+     * Нужна для служебных полей, например, Select.CNT.
+     * @param name имя поля
+     * @return новый набор
+     */
+    public RowReader without (String name) {
+        
+        RowReader r = new RowReader (names, types, readers);
+        
+        r.hidden = hidden == null ? new boolean [names.length] : hidden.clone ();
+        
+        for (int i = 0; i < names.length; i ++) if (names [i].equals (name)) r.hidden [i] = true;
+        
+        return r;
+        
+    }
+    
+    /**
+     * Чтение значения поля текущей записи
+     * @param rs курсор, для которого успешно вызван next ()
+     * @param n номер поля, начиная с 1
+     * @return значение
+     * @throws SQLException
+     */
+    public Object read (ResultSet rs, int n) throws SQLException {
+        return readers [n - 1].read (rs, n);
+    }
+    
+    /**
+     * Общий для всех записей индекс имён полей, попадающих в toMap (). 
+     * Если имена повторяются, берётся последнее поле с таким именем.
+     * @return индекс
+     */
+    public ColumnIndex getIndex () {
+        
+        if (index != null) return index;
+        
+        Map<String, Integer> last = new LinkedHashMap<> ();
+        
+        for (int i = 0; i < names.length; i ++) {
+            if (isHidden (i + 1)) continue;
+            last.remove (names [i]);
+            last.put (names [i], i);
+        }
+        
+        columns = new int [last.size ()];
+        
+        int j = 0;
+        
+        for (Integer i: last.values ()) columns [j ++] = i;
+        
+        index = new ColumnIndex (last.keySet ().toArray (new String [0]));
+        
+        return index;
+        
+    }
+    
+    /**
+     * Чтение текущей записи в виде хэша (без BLOB- и скрытых полей). 
+     * 
+     * Результат -- компактный RowMap, разделяющий с другими записями 
+     * той же выборки индекс имён полей.
+     * 
+     * @param rs курсор, для которого успешно вызван next ()
+     * @return запись
+     * @throws SQLException
+     */
+    public Map<String, Object> toMap (ResultSet rs) throws SQLException {
+        
+        final ColumnIndex index = getIndex ();
+        
+        final Object [] values = new Object [columns.length];
+        
+        for (int j = 0; j < columns.length; j ++) {
+            final int i = columns [j];
+            values [j] = readers [i].read (rs, i + 1);
+        }
+        
+        return new RowMap (index, values);
+        
+    }
+    
+}
@@ -0,0 +1,271 @@
+package ru.eludia.base.db.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Кэш подготовленных запросов (PreparedStatement) в рамках одного соединения с БД.
+ *
+ * Запросы различаются по тексту SQL и списку полей, значения которых
+ * требуется вернуть после INSERT (см. DB.insertId).
+ *
+ * Запрос выдаётся методом take () и на время использования изымается из кэша,
+ * так что вложенный вызов с тем же SQL (например, из обработчика forEach)
+ * получит отдельный экземпляр. По окончании работы запрос надо вернуть
+ * методом release () либо, если с ним что-то пошло не так, закрыть
+ * методом discard ().
+ *
+ * Сверх capacity в кэше хранятся только самые недавно использованные запросы,
+ * прочие закрываются. Все оставшиеся закрываются методом close ().
+ *
+ * При возврате в кэш у запроса сбрасываются maxRows и fetchSize, заданные
+ * тем, кто его использовал (например, maxRows = 1 в DB.forFirst), так что
+ * следующий получатель того же SQL видит настройки по умолчанию.
+ */
+public final class StatementCache implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger (StatementCache.class.getName ());
+
+    private static final String RETURNING = "\n--RETURNING ";
+
+    Connection cn;
+    int capacity;
+    Stats stats;
+    boolean closed = false;
+    int defaultFetchSize = -1;
+
+    long hits = 0L;
+    long misses = 0L;
+    long evictions = 0L;
+
+    Map<PreparedStatement, String> busy = new IdentityHashMap<> ();
+
+    LinkedHashMap<String, PreparedStatement> idle = new LinkedHashMap<String, PreparedStatement> (16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry (Map.Entry<String, PreparedStatement> eldest) {
+            if (size () <= capacity) return false;
+            evict (eldest.getValue ());
+            return true;
+        }
+
+    };
+
+    /**
+     * Конструктор
+     * @param cn соединение, для которого готовятся запросы
+     * @param capacity максимальное число простаивающих запросов; 0 — кэш отключён
+     * @param stats общие на всю модель счётчики (может быть null)
+     */
+    public StatementCache (Connection cn, int capacity, Stats stats) {
+        if (capacity < 0) throw new IllegalArgumentException ("Illegal capacity value: " + capacity);
+        this.cn = cn;
+        this.capacity = capacity;
+        this.stats = stats == null ? new Stats () : stats;
+    }
+
+    private static String toKey (String sql, String [] keyColNames) {
+        if (keyColNames == null || keyColNames.length == 0) return sql;
+        return sql + RETURNING + String.join (",", keyColNames);
+    }
+
+    /**
+     * Выдача подготовленного запроса по заданному SQL
+     * @param sql текст запроса
+     * @return запрос, изъятый из кэша, либо только что подготовленный
+     * @throws SQLException
+     */
+    public PreparedStatement take (String sql) throws SQLException {
+        return take (sql, null);
+    }
+
+    /**
+     * Выдача подготовленного запроса по заданному SQL с возвратом значений полей
+     * @param sql текст запроса
+     * @param keyColNames имена полей, значения которых надо вернуть через getGeneratedKeys (), либо null
+     * @return запрос, изъятый из кэша, либо только что подготовленный
+     * @throws SQLException
+     */
+    public PreparedStatement take (String sql, String [] keyColNames) throws SQLException {
+
+        final String key = toKey (sql, keyColNames);
+
+        PreparedStatement st = idle.remove (key);
+
+        if (st != null) {
+            hits ++;
+            stats.hits.increment ();
+        }
+        else {
+            misses ++;
+            stats.misses.increment ();
+            st = keyColNames == null || keyColNames.length == 0 ? cn.prepareStatement (sql) : cn.prepareStatement (sql, keyColNames);
+            if (defaultFetchSize < 0) defaultFetchSize = st.getFetchSize ();
+        }
+
+        busy.put (st, key);
+
+        return st;
+
+    }
+
+    /**
+     * Возврат ранее выданного запроса в кэш
+     * @param st то, что было выдано методом take ()
+     */
+    public void release (PreparedStatement st) {
+
+        String key = busy.remove (st);
+
+        if (key == null || closed || capacity == 0 || idle.containsKey (key) || !reset (st)) {
+            close (st);
+            return;
+        }
+
+        idle.put (key, st);
+
+    }
+
+    /**
+     * Закрытие ранее выданного запроса без возврата в кэш (например, после ошибки)
+     * @param st то, что было выдано методом take ()
+     */
+    public void discard (PreparedStatement st) {
+        busy.remove (st);
+        close (st);
+    }
+
+    private boolean reset (PreparedStatement st) {
+        try {
+            if (st.getMaxRows () != 0) st.setMaxRows (0);
+            if (defaultFetchSize >= 0 && st.getFetchSize () != defaultFetchSize) st.setFetchSize (defaultFetchSize);
+            return true;
+        }
+        catch (SQLException ex) {
+            logger.log (Level.WARNING, "Can't reset statement, closing it", ex);
+            return false;
+        }
+    }
+
+    private void evict (PreparedStatement st) {
+        evictions ++;
+        stats.evictions.increment ();
+        close (st);
+    }
+
+    private static void close (PreparedStatement st) {
+        try {
+            st.close ();
+        }
+        catch (SQLException ex) {
+            logger.log (Level.WARNING, "Can't close statement", ex);
+        }
+    }
+
+    /**
+     * Закрытие всех простаивающих запросов. Запросы, выданные ранее
+     * и ещё не возвращённые, будут закрыты при возврате.
+     */
+    @Override
+    public void close () {
+        closed = true;
+        for (Iterator<PreparedStatement> i = idle.values ().iterator (); i.hasNext ();) {
+            close (i.next ());
+            i.remove ();
+        }
+    }
+
+    /**
+     * @return число запросов, выданных из кэша без повторной подготовки
+     */
+    public long getHits () {
+        return hits;
+    }
+
+    /**
+     * @return число запросов, подготовленных заново
+     */
+    public long getMisses () {
+        return misses;
+    }
+
+    /**
+     * @return число запросов, закрытых из-за переполнения кэша
+     */
+    public long getEvictions () {
+        return evictions;
+    }
+
+    /**
+     * @return максимальное число простаивающих запросов
+     */
+    public int getCapacity () {
+        return capacity;
+    }
+
+    /**
+     * @return текущее число простаивающих запросов
+     */
+    public int size () {
+        return idle.size ();
+    }
+
+    /**
+     * @return общие на всю модель счётчики
+     */
+    public Stats getStats () {
+        return stats;
+    }
+
+    @Override
+    public String toString () {
+        return "{capacity: " + capacity + ", size: " + idle.size () + ", hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + "}";
+    }
+
+    /**
+     * Счётчики обращений к кэшам запросов, накапливаемые по всем соединениям модели.
+     * Предназначены для подбора размера кэша под реальной нагрузкой.
+     */
+    public static final class Stats {
+
+        final LongAdder hits      = new LongAdder ();
+        final LongAdder misses    = new LongAdder ();
+        final LongAdder evictions = new LongAdder ();
+
+        public long getHits () {
+            return hits.sum ();
+        }
+
+        public long getMisses () {
+            return misses.sum ();
+        }
+
+        public long getEvictions () {
+            return evictions.sum ();
+        }
+
+        /**
+         * @return доля запросов, выданных из кэша, от 0 до 1
+         */
+        public double getHitRatio () {
+            long h = getHits ();
+            long total = h + getMisses ();
+            return total == 0 ? 0.0 : (double) h / total;
+        }
+
+        @Override
+        public String toString () {
+            return "{hits: " + getHits () + ", misses: " + getMisses () + ", evictions: " + getEvictions () + "}";
+        }
+
+    }
+
+}
@@ -379,6 +379,11 @@ public class TypeConverter {
         
         if (v instanceof XMLGregorianCalendar) return new Timestamp (((XMLGregorianCalendar) v).toGregorianCalendar ().getTimeInMillis ());
         if (v instanceof java.util.Date) return new Timestamp (((java.util.Date) v).getTime ());
+        if (v instanceof LocalDateTime) return Timestamp.valueOf ((LocalDateTime) v);
+        if (v instanceof LocalDate) return Timestamp.valueOf (((LocalDate) v).atStartOfDay ());
+        if (v instanceof java.time.Instant) return Timestamp.from ((java.time.Instant) v);
+        if (v instanceof java.time.OffsetDateTime) return Timestamp.from (((java.time.OffsetDateTime) v).toInstant ());
+        if (v instanceof java.time.ZonedDateTime) return Timestamp.from (((java.time.ZonedDateTime) v).toInstant ());
 
         String s = v.toString ();        
         
@@ -0,0 +1,187 @@
+package ru.eludia.base.db.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Индекс записей по ключу типа UUID: хэш-таблица с открытой адресацией, 
+ * где каждый ключ хранится в виде двух long, без объектов UUID.
+ * 
+ * Не потокобезопасен. Значения null не допускаются.
+ * 
+ * @param <V> тип значений
+ */
+public final class UuidIndex<V> {
+    
+    long [] msbs;
+    long [] lsbs;
+    Object [] values;
+    int size = 0;
+    int mask;
+
+    public UuidIndex () {
+        this (0);
+    }
+
+    /**
+     * Конструктор
+     * @param expectedSize ожидаемое число ключей
+     */
+    public UuidIndex (int expectedSize) {
+        allocate (LongIndex.capacityFor (expectedSize));
+    }
+    
+    private void allocate (int capacity) {
+        msbs   = new long [capacity];
+        lsbs   = new long [capacity];
+        values = new Object [capacity];
+        mask   = capacity - 1;
+    }
+    
+    private int slot (long msb, long lsb) {
+        int i = LongIndex.hash (msb ^ Long.rotateLeft (lsb, 29)) & mask;
+        while (values [i] != null && (msbs [i] != msb || lsbs [i] != lsb)) i = (i + 1) & mask;
+        return i;
+    }
+    
+    /**
+     * Значение по ключу
+     * @param msb старшие 64 бита UUID
+     * @param lsb младшие 64 бита UUID
+     * @return значение либо null, если ключа нет
+     */
+    @SuppressWarnings ("unchecked")
+    public V get (long msb, long lsb) {
+        return (V) values [slot (msb, lsb)];
+    }
+    
+    /**
+     * Значение по ключу
+     * @param k ключ
+     * @return значение либо null, если ключа нет (в том числе для k == null)
+     */
+    public V get (UUID k) {
+        return k == null ? null : get (k.getMostSignificantBits (), k.getLeastSignificantBits ());
+    }
+    
+    public boolean containsKey (UUID k) {
+        return get (k) != null;
+    }
+
+    /**
+     * Запись значения по ключу
+     * @param msb старшие 64 бита UUID
+     * @param lsb младшие 64 бита UUID
+     * @param v значение (не null)
+     * @return прежнее значение либо null
+     */
+    @SuppressWarnings ("unchecked")
+    public V put (long msb, long lsb, V v) {
+        
+        if (v == null) throw new IllegalArgumentException ("null values are not supported");
+        
+        int i = slot (msb, lsb);
+        
+        final V old = (V) values [i];
+        
+        msbs [i] = msb;
+        lsbs [i] = lsb;
+        values [i] = v;
+        
+        if (old == null && ++ size * 2 > values.length) grow ();
+        
+        return old;
+        
+    }
+    
+    public V put (UUID k, V v) {
+        return put (k.getMostSignificantBits (), k.getLeastSignificantBits (), v);
+    }
+    
+    /**
+     * Значение по ключу, а если его нет -- вновь вычисленное и записанное
+     * @param msb старшие 64 бита UUID
+     * @param lsb младшие 64 бита UUID
+     * @param f вычисление значения по ключу (не должно возвращать null)
+     * @return значение
+     */
+    public V computeIfAbsent (long msb, long lsb, Function<UUID, V> f) {
+        final V v = get (msb, lsb);
+        if (v != null) return v;
+        final V nv = f.apply (new UUID (msb, lsb));
+        put (msb, lsb, nv);
+        return nv;
+    }
+    
+    private void grow () {
+        
+        final long [] oldMsbs = msbs;
+        final long [] oldLsbs = lsbs;
+        final Object [] oldValues = values;
+        
+        allocate (values.length * 2);
+        
+        for (int j = 0; j < oldValues.length; j ++) {
+            if (oldValues [j] == null) continue;
+            final int i = slot (oldMsbs [j], oldLsbs [j]);
+            msbs [i] = oldMsbs [j];
+            lsbs [i] = oldLsbs [j];
+            values [i] = oldValues [j];
+        }
+        
+    }
+    
+    /**
+     * Старшие 64 бита UUID, хранимого в виде 16 байт (как в TypeConverter.UUID)
+     * @param b ровно 16 байт
+     * @return subj
+     */
+    public static long getMsb (byte [] b) {
+        if (b.length != 16) throw new IllegalArgumentException ("16 bytes expected, got " + b.length);
+        long l = 0L;
+        for (int i = 0; i < 8; i ++) l = (l << 8) | (b [i] & 0xFF);
+        return l;
+    }
+    
+    /**
+     * Младшие 64 бита UUID, хранимого в виде 16 байт (как в TypeConverter.UUID)
+     * @param b ровно 16 байт
+     * @return subj
+     */
+    public static long getLsb (byte [] b) {
+        if (b.length != 16) throw new IllegalArgumentException ("16 bytes expected, got " + b.length);
+        long l = 0L;
+        for (int i = 8; i < 16; i ++) l = (l << 8) | (b [i] & 0xFF);
+        return l;
+    }
+    
+    public int size () {
+        return size;
+    }
+    
+    public boolean isEmpty () {
+        return size == 0;
+    }
+    
+    /**
+     * @return все ключи, в произвольном порядке
+     */
+    public List<UUID> keys () {
+        List<UUID> result = new ArrayList<> (size);
+        for (int i = 0; i < values.length; i ++) if (values [i] != null) result.add (new UUID (msbs [i], lsbs [i]));
+        return result;
+    }
+    
+    /**
+     * @return все значения, в том же порядке, что и keys ()
+     */
+    @SuppressWarnings ("unchecked")
+    public List<V> values () {
+        List<V> result = new ArrayList<> (size);
+        for (Object v: values) if (v != null) result.add ((V) v);
+        return result;
+    }
+    
+}
@@ -0,0 +1,75 @@
+package ru.eludia.base.model;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import ru.eludia.base.DB;
+import ru.eludia.base.model.abs.NamedObject;
+
+/**
+ * Последовательность БД, из которой на клиенте выдаются значения 
+ * числового первичного ключа таблицы (см. Table.sequence).
+ * 
+ * Значения запрашиваются у сервера порциями по blockSize штук одним запросом 
+ * (DB.nextValues) и затем раздаются потокам без блокировок; блокировка 
+ * берётся только на время получения следующей порции. Значения уникальны, 
+ * возрастают в пределах порции, но между порциями (и между JVM) 
+ * возможны пропуски и перемежения.
+ */
+public class Sequence extends NamedObject {
+    
+    int blockSize;
+    
+    private volatile Block block = new Block (new long [0]);
+
+    public Sequence (String name, int blockSize) {
+        super (name);
+        if (blockSize < 1) throw new IllegalArgumentException ("Illegal block size: " + blockSize);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return число значений, запрашиваемых у сервера за раз
+     */
+    public int getBlockSize () {
+        return blockSize;
+    }
+    
+    /**
+     * Очередное значение
+     * @param db соединение, через которое при необходимости запрашивается следующая порция
+     * @return значение последовательности
+     * @throws SQLException
+     */
+    public long next (DB db) throws SQLException {
+        
+        while (true) {
+            
+            final Block b = block;
+            
+            final int i = b.pos.getAndIncrement ();
+            
+            if (i < b.values.length) return b.values [i];
+            
+            refill (db, b);
+            
+        }
+        
+    }
+    
+    private synchronized void refill (DB db, Block exhausted) throws SQLException {
+        if (block != exhausted) return;
+        block = new Block (db.nextValues (this, blockSize));
+    }
+    
+    private static final class Block {
+        
+        final long [] values;
+        final AtomicInteger pos = new AtomicInteger ();
+
+        Block (long [] values) {
+            this.values = values;
+        }
+        
+    }
+    
+}
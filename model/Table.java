@@ -10,8 +10,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javax.json.JsonObject;
 import ru.eludia.base.DB;
+import ru.eludia.base.db.cache.EntityCache;
 import ru.eludia.base.db.dialect.Oracle;
 import ru.eludia.base.model.abs.Roster;
 
@@ -44,6 +46,10 @@ public abstract class Table extends AbstractTable<Col, Key> {
     }
     
     List<Map <String, Object>> data = Collections.EMPTY_LIST;
+    
+    EntityCache cache = null;
+    
+    Sequence sequence = null;
 
     public Table (String name) {
         super (name);
@@ -94,6 +100,71 @@ public abstract class Table extends AbstractTable<Col, Key> {
         data.add (DB.HASH (o));
     }
     
+    /**
+     * Включение кэша записей по первичному ключу (см. EntityCache): 
+     * DB.getMap (Table, Object) и DB.getJsonObject (Table, Object) 
+     * будут обращаться к БД только при промахе. Имеет смысл для редко 
+     * меняющихся таблиц со скалярным первичным ключом; вызывать после pk (...).
+     * @param maxSize максимальное число записей в кэше
+     * @param ttl время жизни записи
+     * @param unit единица измерения ttl
+     */
+    protected final void cache (int maxSize, long ttl, TimeUnit unit) {
+        setCache (new EntityCache (getName (), maxSize, ttl, unit, true));
+    }
+    
+    /**
+     * Кэш записей по первичному ключу
+     * @return null, если не включён
+     */
+    public final EntityCache getCache () {
+        return cache;
+    }
+
+    /**
+     * Включение/выключение кэша записей по первичному ключу
+     * @param cache кэш либо null
+     */
+    public final void setCache (EntityCache cache) {
+        if (cache != null && (getPk () == null || getPk ().size () != 1)) throw new IllegalArgumentException ("Entity cache requires a scalar PK: " + getName ());
+        this.cache = cache;
+    }
+    
+    /**
+     * Выдача значений первичного ключа на клиенте из последовательности БД 
+     * с именем sq_<имя таблицы> (см. sequence (String, int)). Слишком длинные 
+     * имена диалект заменяет хэшем.
+     * @param blockSize число значений, запрашиваемых у сервера за раз
+     */
+    protected final void sequence (int blockSize) {
+        sequence ("sq_" + getName (), blockSize);
+    }
+    
+    /**
+     * Выдача значений первичного ключа на клиенте из последовательности БД: 
+     * DB.insert, insertId, insertIds и InsertBuffer подставляют их в записи 
+     * без PK, так что ключи известны без обращения к getGeneratedKeys. 
+     * Последовательность создаётся при updateSchema. Первичный ключ должен 
+     * быть скалярным и числовым; вызывать после pk (...).
+     * @param name имя последовательности
+     * @param blockSize число значений, запрашиваемых у сервера за раз
+     */
+    protected final void sequence (String name, int blockSize) {
+        final List<Col> pk = getPk ();
+        if (pk == null || pk.size () != 1) throw new IllegalArgumentException ("Sequence requires a scalar PK: " + getName ());
+        final Type type = pk.get (0).getType ();
+        if (type != Type.INTEGER && type != Type.NUMERIC) throw new IllegalArgumentException ("Sequence requires a numeric PK: " + getName ());
+        sequence = new Sequence (name, blockSize);
+    }
+    
+    /**
+     * Последовательность для значений первичного ключа
+     * @return null, если не задана
+     */
+    public final Sequence getSequence () {
+        return sequence;
+    }
+    
     protected final void trigger (String when, String what) {
         Trigger trg = new Trigger (when, what);
         triggers.add (trg);